@@ -0,0 +1,405 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Bitmap decoding and encoding helpers that keep peak memory proportional to the requested size
+ * rather than to the size of the source image.
+ */
+public class BitmapHelper {
+    static final int MIN_SEARCH_QUALITY = 10;
+    private static final int MIN_DIMENSION = 32;
+    /** Bytes per pixel of the ARGB_8888 bitmaps decoded here */
+    private static final int BYTES_PER_PIXEL = 4;
+    /** Encode buffers that grew larger than this are not kept for reuse */
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    private static final ThreadLocal<ByteArrayOutputStream> encodeBuffers = new ThreadLocal<ByteArrayOutputStream>() {
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream(64 * 1024);
+        }
+    };
+
+    /**
+     * Reads the image dimensions from the file header without decoding any pixels.
+     *
+     * @param path the image file path
+     * @return options with outWidth/outHeight/outMimeType set; outWidth is -1 if the file isn't an image
+     */
+    public static BitmapFactory.Options decodeBounds(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        return options;
+    }
+
+    /**
+     * Returns the largest power-of-two sample size that keeps both dimensions at or above the requested size,
+     * so the result can still be center-cropped to reqWidth x reqHeight without upscaling.
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (width <= 0 || height <= 0 || reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Decodes an image subsampled to the smallest power-of-two reduction that still covers reqWidth x reqHeight.
+     * EXIF orientation is not applied, like {@link BitmapFactory#decodeFile(String)}.
+     *
+     * @param path the image file path
+     * @param reqWidth the width the result must cover
+     * @param reqHeight the height the result must cover
+     * @return the decoded bitmap, or null if the file can't be decoded
+     */
+    public static Bitmap decodeSampled(String path, int reqWidth, int reqHeight) {
+        return decodeSampled(path, reqWidth, reqHeight, Bitmap.Config.ARGB_8888, null);
+    }
+
+    /**
+     * Decodes an image like {@link #decodeSampled(String, int, int)}, into a pooled bitmap when one fits.
+     *
+     * @param config the preferred config; the decoder still uses ARGB_8888 for RGB_565 if the image has alpha
+     * @param pool the pool to take the bitmap from, or null to allocate a new one; the result is mutable when
+     *             a pool is given, so it can be returned with {@link #release(Bitmap, BitmapPool)}
+     */
+    public static Bitmap decodeSampled(String path, int reqWidth, int reqHeight, Bitmap.Config config,
+                                       BitmapPool pool) {
+        BitmapFactory.Options options = decodeBounds(path);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inSampleSize = sampleSize;
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = config;
+        Bitmap reuse = null;
+        if (pool != null) {
+            options.inMutable = true;
+            reuse = pool.get((options.outWidth + sampleSize - 1) / sampleSize,
+                    (options.outHeight + sampleSize - 1) / sampleSize, config);
+            options.inBitmap = reuse;
+        }
+
+        long start = MediaMetrics.start();
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            if (reuse == null) {
+                throw e;
+            }
+            // The pooled bitmap didn't fit after all, e.g. an image with alpha decoded as ARGB_8888
+            pool.put(reuse);
+            reuse = null;
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(path, options);
+        }
+        MediaMetrics.time("decode", start);
+        if (bitmap == null && reuse != null) {
+            pool.put(reuse);
+        }
+        countAllocation(bitmap, reuse);
+        return bitmap;
+    }
+
+    /**
+     * Scales and center-crops a bitmap to exactly width x height, drawing into a pooled bitmap when one fits.
+     * Does the same as ThumbnailUtils.extractThumbnail, which always allocates the result and an
+     * intermediate scaled copy. The source is left untouched.
+     *
+     * @param pool the pool to take the result from, or null to allocate it
+     */
+    public static Bitmap centerCrop(Bitmap source, int width, int height, BitmapPool pool) {
+        Bitmap.Config config = source.getConfig() == Bitmap.Config.RGB_565
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        Bitmap reuse = pool != null ? pool.get(width, height, config) : null;
+        Bitmap target;
+        if (reuse != null) {
+            reuse.reconfigure(width, height, config);
+            reuse.eraseColor(0);
+            target = reuse;
+        } else {
+            target = Bitmap.createBitmap(width, height, config);
+        }
+        countAllocation(target, reuse);
+
+        float scale = Math.max((float) width / source.getWidth(), (float) height / source.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((width - source.getWidth() * scale) / 2f, (height - source.getHeight() * scale) / 2f);
+        new Canvas(target).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return target;
+    }
+
+    /**
+     * Returns a bitmap to the pool, or recycles it when there is no pool.
+     */
+    public static void release(Bitmap bitmap, BitmapPool pool) {
+        if (pool != null) {
+            pool.put(bitmap);
+        } else if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Encodes a bitmap and returns the encoded bytes.
+     *
+     * @param reuseBuffer encode into this thread's buffer, which keeps its capacity between calls, instead
+     *                    of a new stream that grows from empty every time
+     */
+    public static byte[] encode(Bitmap bitmap, Bitmap.CompressFormat format, int quality, boolean reuseBuffer) {
+        ByteArrayOutputStream buffer = reuseBuffer ? encodeBuffers.get() : new ByteArrayOutputStream();
+        buffer.reset();
+        bitmap.compress(format, quality, buffer);
+        byte[] data = buffer.toByteArray();
+        if (reuseBuffer && buffer.size() > MAX_RETAINED_BUFFER) {
+            encodeBuffers.remove();
+        }
+        return data;
+    }
+
+    private static void countAllocation(Bitmap bitmap, Bitmap reused) {
+        if (bitmap == null) {
+            return;
+        }
+        if (bitmap == reused) {
+            MediaMetrics.count("bitmap.reused");
+        } else {
+            MediaMetrics.count("bitmap.allocated");
+            MediaMetrics.bytes("bitmap.allocated", bitmap.getAllocationByteCount());
+        }
+    }
+
+    /**
+     * Decodes an image rotated upright and scaled to fit within maxWidth x maxHeight, keeping the aspect ratio.
+     * The image is subsampled while decoding, then scaled to the exact size and rotated with a single matrix,
+     * so at most the sampled bitmap and the result are alive at the same time.
+     *
+     * @param path the image file path
+     * @param rotation the clockwise rotation in degrees, usually from EXIF
+     * @param maxWidth the maximum width of the upright result, 0 for no limit
+     * @param maxHeight the maximum height of the upright result, 0 for no limit
+     * @return the decoded bitmap, or null if the file can't be decoded
+     */
+    public static Bitmap decodeOriented(String path, int rotation, int maxWidth, int maxHeight) {
+        BitmapFactory.Options options = decodeBounds(path);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        int[] target = fitSize(width, height, rotation, maxWidth, maxHeight);
+        int targetWidth = target[0];
+        int targetHeight = target[1];
+
+        options.inSampleSize = calculateInSampleSize(width, height, targetWidth, targetHeight);
+        options.inJustDecodeBounds = false;
+        long start = MediaMetrics.start();
+        Bitmap sampled = BitmapFactory.decodeFile(path, options);
+        MediaMetrics.time("decode", start);
+        if (sampled == null) {
+            return null;
+        }
+
+        Matrix matrix = new Matrix();
+        if (sampled.getWidth() != targetWidth || sampled.getHeight() != targetHeight) {
+            matrix.postScale((float) targetWidth / sampled.getWidth(), (float) targetHeight / sampled.getHeight());
+        }
+        if (rotation != 0) {
+            matrix.postRotate(rotation);
+        }
+        start = MediaMetrics.start();
+        Bitmap result = Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(), matrix, true);
+        if (result != sampled) {
+            sampled.recycle();
+        }
+        MediaMetrics.time("rotate", start);
+        return result;
+    }
+
+    /**
+     * Estimates the pixel memory of {@link #decodeSampled(String, int, int)} from the file header.
+     *
+     * @return the size of the sampled bitmap in bytes, 0 if the file isn't an image
+     */
+    public static long estimateSampledBytes(String path, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = decodeBounds(path);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return 0;
+        }
+        return sampledBytes(options.outWidth, options.outHeight,
+                calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight));
+    }
+
+    /**
+     * Estimates the peak pixel memory of {@link #decodeOriented(String, int, int, int)} from the file header,
+     * when the sampled bitmap and the result are both alive.
+     *
+     * @param toSize whether the result is then encoded with {@link #compressToSize}, which can hold two
+     *               smaller copies of it at the same time
+     * @return the estimate in bytes, 0 if the file isn't an image
+     */
+    public static long estimateOrientedBytes(String path, int rotation, int maxWidth, int maxHeight,
+                                             boolean toSize) {
+        BitmapFactory.Options options = decodeBounds(path);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return 0;
+        }
+        int[] target = fitSize(options.outWidth, options.outHeight, rotation, maxWidth, maxHeight);
+        long result = (long) target[0] * target[1] * BYTES_PER_PIXEL;
+        long sampled = sampledBytes(options.outWidth, options.outHeight,
+                calculateInSampleSize(options.outWidth, options.outHeight, target[0], target[1]));
+        return sampled + result + (toSize ? 2 * result : 0);
+    }
+
+    /**
+     * Returns the size in bytes of a width x height bitmap, e.g. the output of a thumbnail scale.
+     */
+    public static long bitmapBytes(int width, int height) {
+        return (long) Math.max(0, width) * Math.max(0, height) * BYTES_PER_PIXEL;
+    }
+
+    private static long sampledBytes(int width, int height, int inSampleSize) {
+        return bitmapBytes((width + inSampleSize - 1) / inSampleSize, (height + inSampleSize - 1) / inSampleSize);
+    }
+
+    /**
+     * Returns the decoded (not yet rotated) size that fits the upright image within maxWidth x maxHeight.
+     */
+    private static int[] fitSize(int width, int height, int rotation, int maxWidth, int maxHeight) {
+        // Limits apply to the upright image, the decode happens before rotation
+        boolean swap = rotation % 180 != 0;
+        int limitWidth = swap ? maxHeight : maxWidth;
+        int limitHeight = swap ? maxWidth : maxHeight;
+        float scale = 1f;
+        if (limitWidth > 0) {
+            scale = Math.min(scale, (float) limitWidth / width);
+        }
+        if (limitHeight > 0) {
+            scale = Math.min(scale, (float) limitHeight / height);
+        }
+        return new int[]{Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale))};
+    }
+
+    /**
+     * Encodes a bitmap so the output fits within targetBytes, searching the encoder quality first and
+     * reducing the resolution only when even the lowest quality is too large. The bitmap is decoded once
+     * by the caller and every attempt is encoded in memory, so only the final result needs to be written out.
+     *
+     * @param bitmap the bitmap to encode, not recycled
+     * @param format the output format
+     * @param maxQuality the highest quality to try
+     * @param targetBytes the maximum output size
+     * @return the encoded image; larger than targetBytes only if the minimum size still doesn't fit
+     */
+    public static ByteArrayOutputStream compressToSize(Bitmap bitmap, Bitmap.CompressFormat format, int maxQuality,
+                                                       long targetBytes) {
+        BufferEncoder encoder = new BufferEncoder(format);
+        Bitmap current = bitmap;
+        while (true) {
+            encoder.bitmap = current;
+            if (searchQuality(maxQuality, targetBytes, encoder) >= 0) {
+                break;
+            }
+
+            // Lowest quality is still too large, shrink proportionally to the overshoot
+            long smallest = encoder.attempt.size();
+            double factor = Math.max(0.5, Math.min(0.9, Math.sqrt((double) targetBytes / smallest) * 0.95));
+            int width = (int) (current.getWidth() * factor);
+            int height = (int) (current.getHeight() * factor);
+            if (width < MIN_DIMENSION || height < MIN_DIMENSION) {
+                encoder.keep();
+                break;
+            }
+            Bitmap scaled = Bitmap.createScaledBitmap(current, width, height, true);
+            if (current != bitmap) {
+                current.recycle();
+            }
+            current = scaled;
+        }
+        if (current != bitmap) {
+            current.recycle();
+        }
+        return encoder.best;
+    }
+
+    /**
+     * Encodes one attempt of {@link #searchQuality}.
+     */
+    interface QualityEncoder {
+        /**
+         * Encodes at the given quality and returns the size of the output.
+         */
+        long encode(int quality);
+
+        /**
+         * Keeps the output of the last encode as the best fit so far.
+         */
+        void keep();
+    }
+
+    /**
+     * Binary-searches the highest quality from MIN_SEARCH_QUALITY to maxQuality whose output fits targetBytes,
+     * assuming the output grows with the quality.
+     *
+     * @return the quality, kept by the encoder, or -1 if even MIN_SEARCH_QUALITY doesn't fit; the last
+     *         attempt is then the one at MIN_SEARCH_QUALITY
+     */
+    static int searchQuality(int maxQuality, long targetBytes, QualityEncoder encoder) {
+        int low = MIN_SEARCH_QUALITY;
+        int high = Math.max(low, maxQuality);
+        int found = -1;
+        while (low <= high) {
+            int quality = (low + high) / 2;
+            if (encoder.encode(quality) <= targetBytes) {
+                encoder.keep();
+                found = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Encodes a bitmap into memory, swapping two buffers so the best fit is never copied.
+     */
+    private static class BufferEncoder implements QualityEncoder {
+        private final Bitmap.CompressFormat format;
+        Bitmap bitmap;
+        ByteArrayOutputStream best = new ByteArrayOutputStream();
+        ByteArrayOutputStream attempt = new ByteArrayOutputStream();
+
+        BufferEncoder(Bitmap.CompressFormat format) {
+            this.format = format;
+        }
+
+        public long encode(int quality) {
+            attempt.reset();
+            bitmap.compress(format, quality, attempt);
+            return attempt.size();
+        }
+
+        public void keep() {
+            ByteArrayOutputStream swap = best;
+            best = attempt;
+            attempt = swap;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded pool of mutable bitmaps, reused for decoding through BitmapFactory.Options.inBitmap and as
+ * drawing targets, so rendering thumbnails doesn't allocate two new bitmaps per call.
+ *
+ * Bitmaps are bucketed by allocation size in powers of two. Since Android 4.4 a bitmap can be reused for
+ * any size and config that fits in its allocation, so a request is served from the smallest bucket that
+ * is guaranteed to fit, or the one above it.
+ */
+public class BitmapPool {
+    private final long maxBytes;
+    private final Map<Long, ArrayDeque<Bitmap>> buckets = new HashMap<>();
+    private long pooledBytes;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns true on Android versions that can reuse a bitmap for a different size.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Returns a pooled mutable bitmap whose allocation fits width x height in the given config, or null.
+     * The bitmap keeps its old size and content; decode into it or call reconfigure before drawing.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isSupported()) {
+            return null;
+        }
+        long needed = (long) width * height * bytesPerPixel(config);
+        long bucket = Long.highestOneBit(Math.max(1, needed));
+        if (bucket < needed) {
+            bucket <<= 1;
+        }
+        for (int i = 0; i < 2; i++, bucket <<= 1) {
+            ArrayDeque<Bitmap> bitmaps = buckets.get(bucket);
+            Bitmap bitmap = bitmaps != null ? bitmaps.pollFirst() : null;
+            if (bitmap != null) {
+                pooledBytes -= bitmap.getAllocationByteCount();
+                MediaMetrics.count("bitmapPool.hit");
+                return bitmap;
+            }
+        }
+        MediaMetrics.count("bitmapPool.miss");
+        return null;
+    }
+
+    /**
+     * Returns a bitmap to the pool, or recycles it if it can't be reused or the pool is full.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = bitmap.getAllocationByteCount();
+        if (!isSupported() || !bitmap.isMutable() || pooledBytes + bytes > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        // Every bitmap in a bucket has at least the bucket's size
+        long bucket = Long.highestOneBit(Math.max(1, bytes));
+        ArrayDeque<Bitmap> bitmaps = buckets.get(bucket);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            buckets.put(bucket, bitmaps);
+        }
+        bitmaps.addLast(bitmap);
+        pooledBytes += bytes;
+    }
+
+    /**
+     * Recycles every pooled bitmap. The plugin calls this from onTrimMemory and when it is destroyed.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Bitmap> bitmaps : buckets.values()) {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+        }
+        buckets.clear();
+        pooledBytes = 0;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        // RGBA_F16 only exists from Android 8
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+            return 8;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,131 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.os.CancellationSignal;
+
+import org.json.JSONArray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes content digests of a file while its bytes pass by, e.g. during the cache copy, so callers that
+ * need a hash don't read the file a second time.
+ *
+ * Supported algorithms are "sha256", for server-side deduplication, and "xxhash64", a much faster
+ * non-cryptographic hash for local deduplication. Digests are lowercase hex strings.
+ */
+public class ContentDigest {
+    public static final String SHA256 = "sha256";
+    public static final String XXHASH64 = "xxhash64";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest sha256;
+    private final XxHash64 xxHash64;
+
+    public ContentDigest(List<String> algorithms) {
+        try {
+            sha256 = algorithms.contains(SHA256) ? MessageDigest.getInstance("SHA-256") : null;
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available on Android
+            throw new IllegalStateException(e);
+        }
+        xxHash64 = algorithms.contains(XXHASH64) ? new XxHash64() : null;
+    }
+
+    /**
+     * Returns the algorithms requested by a hash option: true for all of them, an algorithm name, or an
+     * array of names. Unknown names are ignored; an empty list means no hashing.
+     */
+    public static List<String> parseAlgorithms(Object option) {
+        List<String> algorithms = new ArrayList<>();
+        if (Boolean.TRUE.equals(option)) {
+            algorithms.add(SHA256);
+            algorithms.add(XXHASH64);
+        } else if (option instanceof String) {
+            addAlgorithm(algorithms, (String) option);
+        } else if (option instanceof JSONArray) {
+            JSONArray names = (JSONArray) option;
+            for (int i = 0; i < names.length(); i++) {
+                addAlgorithm(algorithms, names.optString(i));
+            }
+        }
+        return algorithms;
+    }
+
+    private static void addAlgorithm(List<String> algorithms, String name) {
+        String algorithm = name.toLowerCase().replace("-", "");
+        if ((SHA256.equals(algorithm) || XXHASH64.equals(algorithm)) && !algorithms.contains(algorithm)) {
+            algorithms.add(algorithm);
+        }
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        if (sha256 != null) {
+            sha256.update(data, offset, length);
+        }
+        if (xxHash64 != null) {
+            xxHash64.update(data, offset, length);
+        }
+    }
+
+    /**
+     * Returns the digests of everything passed to update, by algorithm name. Call once.
+     */
+    public Map<String, String> finish() {
+        Map<String, String> digests = new LinkedHashMap<>();
+        if (sha256 != null) {
+            digests.put(SHA256, toHex(sha256.digest()));
+        }
+        if (xxHash64 != null) {
+            long value = xxHash64.getValue();
+            byte[] bytes = new byte[8];
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = (byte) (value >>> (56 - 8 * i));
+            }
+            digests.put(XXHASH64, toHex(bytes));
+        }
+        return digests;
+    }
+
+    /**
+     * Reads a file and returns its digests, for files that weren't hashed when they were written.
+     *
+     * @param signal checked between reads, may be null
+     * @throws android.os.OperationCanceledException if the signal is cancelled
+     */
+    public static Map<String, String> ofFile(File file, List<String> algorithms, CancellationSignal signal)
+            throws IOException {
+        long start = MediaMetrics.start();
+        ContentDigest digest = new ContentDigest(algorithms);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (signal != null) {
+                    signal.throwIfCanceled();
+                }
+                digest.update(buffer, 0, read);
+            }
+        }
+        MediaMetrics.time("hashFile", start);
+        return digest.finish();
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,110 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.CancellationSignal;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+
+/**
+ * Admission control for bitmap work. Each decode reserves its estimated pixel memory before it starts and
+ * releases it once its bitmaps are recycled. A job that would take the total over the budget waits until
+ * enough is released, instead of running anyway and risking an OutOfMemoryError.
+ *
+ * Jobs are admitted in arrival order, so a large compression isn't starved by a stream of small thumbnails.
+ * A single job larger than the whole budget runs once nothing else is reserved.
+ */
+public class DecodeBudget {
+    private static final long MIN_CAPACITY_BYTES = 16L * 1024 * 1024;
+    private static final long WAIT_POLL_MS = 100;
+
+    /**
+     * Memory reserved by one job, returned to the budget by {@link #close()}.
+     */
+    public class Reservation implements Closeable {
+        private final long bytes;
+        private boolean closed;
+
+        Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            synchronized (DecodeBudget.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                reserved -= bytes;
+                DecodeBudget.this.notifyAll();
+            }
+        }
+    }
+
+    private final long capacityBytes;
+    private final ArrayDeque<Object> waiting = new ArrayDeque<>();
+    private long reserved;
+
+    public DecodeBudget(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Returns a budget for the device: a quarter of the app's memory class, an eighth on low-RAM devices.
+     * Bitmap pixels don't count against the Java heap since Android 8, but the memory class still tells how
+     * much memory the device expects an app to use.
+     */
+    public static long defaultCapacity(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryClassBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        long capacity = memoryClassBytes / (activityManager.isLowRamDevice() ? 8 : 4);
+        return Math.max(MIN_CAPACITY_BYTES, capacity);
+    }
+
+    /**
+     * Reserves memory for a job, waiting while it doesn't fit. Close the reservation when the job's bitmaps
+     * are recycled.
+     *
+     * @param bytes the estimated peak pixel memory of the job
+     * @param signal checked while waiting, may be null
+     * @throws android.os.OperationCanceledException if the signal is cancelled while waiting
+     */
+    public Reservation reserve(long bytes, CancellationSignal signal) throws InterruptedException {
+        long start = MediaMetrics.start();
+        boolean waited = false;
+        Object ticket = new Object();
+        synchronized (this) {
+            waiting.addLast(ticket);
+            try {
+                while (waiting.peekFirst() != ticket || (reserved > 0 && reserved + bytes > capacityBytes)) {
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    waited = true;
+                    wait(WAIT_POLL_MS);
+                }
+            } finally {
+                waiting.remove(ticket);
+                // The next job in line may fit now
+                notifyAll();
+            }
+            reserved += bytes;
+        }
+        if (waited) {
+            MediaMetrics.count("decodeBudget.waited");
+            MediaMetrics.time("decodeBudget.wait", start);
+        }
+        MediaMetrics.bytes("decodeBudget.reserve", bytes);
+        return new Reservation(bytes);
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public synchronized long getReservedBytes() {
+        return reserved;
+    }
+}
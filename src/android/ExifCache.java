@@ -0,0 +1,130 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.media.ExifInterface;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the EXIF header of a file once and keeps every attribute in a bounded in-memory cache,
+ * so reading several tags, or the orientation for each thumbnail and compression, costs a single parse.
+ * Entries are keyed on path, size and modification time, a changed file is parsed again.
+ */
+public class ExifCache {
+    private static final String TAG = "ExifCache";
+    private static final int MAX_ENTRIES = 128;
+
+    /** Every tag name ExifInterface knows, from its TAG_ constants */
+    private static final List<String> ALL_TAGS = findTags();
+
+    /**
+     * The attributes of one file. Files without EXIF, or whose format ExifInterface doesn't support, have no
+     * attributes.
+     */
+    public static class Exif {
+        public final Map<String, String> attributes;
+        /** Clockwise rotation in degrees from the orientation tag */
+        public final int rotation;
+
+        Exif(Map<String, String> attributes) {
+            this.attributes = Collections.unmodifiableMap(attributes);
+            this.rotation = toRotation(attributes.get(ExifInterface.TAG_ORIENTATION));
+        }
+
+        public String getAttribute(String tag) {
+            return attributes.get(tag);
+        }
+    }
+
+    private final Map<String, Exif> cache = new LinkedHashMap<String, Exif>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Exif> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Returns the EXIF attributes of a local file, parsing it only if it isn't cached or has changed.
+     *
+     * @throws IOException if the file is missing or can't be read; failures are not cached
+     */
+    public Exif get(String path) throws IOException {
+        File file = new File(path);
+        String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        synchronized (cache) {
+            Exif cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Exif exif = new Exif(parse(path));
+        synchronized (cache) {
+            cache.put(key, exif);
+        }
+        return exif;
+    }
+
+    private static Map<String, String> parse(String path) throws IOException {
+        Map<String, String> attributes = new HashMap<>();
+        try {
+            ExifInterface exifInterface = new ExifInterface(path);
+            for (String tag : ALL_TAGS) {
+                String value = exifInterface.getAttribute(tag);
+                if (value != null) {
+                    attributes.put(tag, value);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Not an image with EXIF support, e.g. a video; remember that too
+            Log.d(TAG, "No EXIF for " + path + ": " + e);
+        }
+        return attributes;
+    }
+
+    static int toRotation(String orientation) {
+        int value;
+        try {
+            value = orientation != null ? Integer.parseInt(orientation.trim()) : ExifInterface.ORIENTATION_NORMAL;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        switch (value) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private static List<String> findTags() {
+        List<String> tags = new ArrayList<>();
+        for (Field field : ExifInterface.class.getFields()) {
+            if (field.getName().startsWith("TAG_") && field.getType() == String.class
+                    && Modifier.isStatic(field.getModifiers())) {
+                try {
+                    String tag = (String) field.get(null);
+                    if (tag != null && !tags.contains(tag)) {
+                        tags.add(tag);
+                    }
+                } catch (IllegalAccessException e) {
+                    // skip
+                }
+            }
+        }
+        return tags;
+    }
+}
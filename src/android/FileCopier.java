@@ -0,0 +1,157 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Copies content URIs to local files using channels instead of a heap byte[] loop.
+ * Seekable sources are copied with FileChannel.transferTo so the data stays in the kernel;
+ * pipes and other non-seekable sources fall back to a large direct ByteBuffer loop.
+ * When a digest is requested the data has to pass through the heap anyway, so the copy uses a heap
+ * buffer loop and hashes each chunk on its way to the destination.
+ */
+public class FileCopier {
+    private static final String TAG = "FileCopier";
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Copies the content of the given URI into the destination file.
+     * A partially written destination file is deleted when the copy fails.
+     *
+     * @param resolver the content resolver used to open the URI
+     * @param uri the source URI
+     * @param dest the destination file, created or truncated
+     * @return the number of bytes copied
+     * @throws IOException if the source can't be opened or the copy fails
+     */
+    public static long copy(ContentResolver resolver, Uri uri, File dest) throws IOException {
+        return copy(resolver, uri, dest, null);
+    }
+
+    /**
+     * Copies the content of the given URI into the destination file, checking for cancellation between chunks.
+     * A partially written destination file is deleted when the copy fails or is cancelled.
+     *
+     * @param signal the cancellation signal of the job, or null
+     * @throws android.os.OperationCanceledException if the signal is cancelled during the copy
+     * @see #copy(ContentResolver, Uri, File)
+     */
+    public static long copy(ContentResolver resolver, Uri uri, File dest, CancellationSignal signal)
+            throws IOException {
+        return copy(resolver, uri, dest, signal, null);
+    }
+
+    /**
+     * Copies the content of the given URI into the destination file, feeding every byte to the digest
+     * as it is written, so the copy and the hash share a single read of the source.
+     *
+     * @param digest receives the copied bytes, or null to copy without hashing
+     * @see #copy(ContentResolver, Uri, File, CancellationSignal)
+     */
+    public static long copy(ContentResolver resolver, Uri uri, File dest, CancellationSignal signal,
+                            ContentDigest digest) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        long metricsStart = MediaMetrics.start();
+        boolean success = false;
+        long copied;
+        try {
+            ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r", signal);
+            if (pfd != null) {
+                copied = copyFromDescriptor(pfd, dest, signal, digest);
+            } else {
+                InputStream in = resolver.openInputStream(uri);
+                if (in == null) {
+                    throw new FileNotFoundException("Could not open " + uri);
+                }
+                copied = copyFromStream(in, dest, signal, digest);
+            }
+            success = true;
+        } finally {
+            if (!success && dest.exists() && !dest.delete()) {
+                Log.w(TAG, "Could not delete partial file " + dest);
+            }
+        }
+
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, "Copied " + copied + " bytes in " + elapsed + " ms ("
+                + (copied / 1024 * 1000 / elapsed / 1024) + " MB/s)");
+        MediaMetrics.time("copy", metricsStart);
+        MediaMetrics.bytes("copy", copied);
+        return copied;
+    }
+
+    private static long copyFromDescriptor(ParcelFileDescriptor pfd, File dest, CancellationSignal signal,
+                                           ContentDigest digest) throws IOException {
+        long statSize = pfd.getStatSize();
+        try (ParcelFileDescriptor.AutoCloseInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+             FileOutputStream out = new FileOutputStream(dest)) {
+            FileChannel source = in.getChannel();
+            FileChannel target = out.getChannel();
+            if (statSize < 0 || digest != null) {
+                // Pipe or socket, no size and no positional reads; or the bytes must be seen to hash them
+                return bufferCopy(source, target, signal, digest);
+            }
+
+            long position = 0;
+            while (position < statSize) {
+                throwIfCanceled(signal);
+                long transferred = source.transferTo(position, Math.min(TRANSFER_CHUNK, statSize - position), target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            // The provider may report a stale size, pick up anything left
+            source.position(position);
+            return position + bufferCopy(source, target, signal, null);
+        }
+    }
+
+    private static long copyFromStream(InputStream in, File dest, CancellationSignal signal, ContentDigest digest)
+            throws IOException {
+        try (ReadableByteChannel source = Channels.newChannel(in);
+             FileOutputStream out = new FileOutputStream(dest)) {
+            return bufferCopy(source, out.getChannel(), signal, digest);
+        }
+    }
+
+    private static long bufferCopy(ReadableByteChannel source, FileChannel target, CancellationSignal signal,
+                                   ContentDigest digest) throws IOException {
+        // A direct buffer avoids a copy through the heap, unless the digest needs the bytes there
+        ByteBuffer buffer = digest != null ? ByteBuffer.allocate(BUFFER_SIZE) : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long total = 0;
+        while (source.read(buffer) != -1) {
+            throwIfCanceled(signal);
+            if (digest != null) {
+                digest.update(buffer.array(), buffer.arrayOffset(), buffer.position());
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                total += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+
+    private static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
+}
@@ -29,9 +29,13 @@ import android.webkit.MimeTypeMap;
 
 import org.apache.cordova.CordovaInterface;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Locale;
 
 public class FileHelper {
@@ -210,6 +214,40 @@ public class FileHelper {
         return uriString;
     }
 
+    /**
+     * Reads a range of a file. Unlike a single InputStream.read, this keeps reading until the
+     * whole range is read or the end of the file is reached.
+     *
+     * @param file the file to read
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes to read
+     * @return the bytes read, fewer than length only if the file ends first
+     * @throws IOException
+     */
+    public static byte[] readRange(File file, long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = readFully(in.getChannel(), offset, data, length);
+            return read == length ? data : Arrays.copyOf(data, read);
+        }
+    }
+
+    /**
+     * Reads up to length bytes at the given position of a channel into the start of buffer.
+     *
+     * @return the number of bytes read, fewer than length only at the end of the file
+     * @throws IOException
+     */
+    public static int readFully(FileChannel channel, long offset, byte[] buffer, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, offset + target.position()) < 0) {
+                break;
+            }
+        }
+        return target.position();
+    }
+
     public static String getMimeTypeForExtension(String path) {
         String extension = path;
         int lastDot = extension.lastIndexOf('.');
@@ -235,7 +273,7 @@ public class FileHelper {
 
         Uri uri = Uri.parse(uriString);
         if (uriString.startsWith("content://")) {
-            mimeType = cordova.getActivity().getContentResolver().getType(uri);
+            mimeType = MetadataResolver.getInstance(cordova.getActivity()).resolve(uri).mimeType;
         } else {
             mimeType = getMimeTypeForExtension(uri.getPath());
         }
@@ -0,0 +1,435 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content-addressed cache for media copied or generated by the plugin.
+ *
+ * Every entry lives in its own directory named after the entry key, so two sources with the same
+ * display name never overwrite each other, while the file itself keeps its original name.
+ * Total size is tracked in memory and least-recently-used entries are evicted once the quota is exceeded.
+ * The directory modification time is used to persist the LRU order across app restarts.
+ * Entries pinned by a {@link Pins} are never evicted, so a result still being built doesn't lose files.
+ * An entry directory can also hold dot-files with data about the entry, such as its content digests.
+ */
+public class MediaCache {
+    private static final String TAG = "MediaCache";
+    private static final String PART_SUFFIX = ".part";
+    private static final String DIGESTS_FILE_NAME = ".digests";
+
+    public static final long DEFAULT_QUOTA_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * Produces the content of a new cache entry.
+     */
+    public interface Writer {
+        void write(File target) throws IOException;
+    }
+
+    /**
+     * Told about entries deleted by eviction or {@link #remove(String)}, e.g. to drop references to their files.
+     */
+    public interface EvictionListener {
+        /**
+         * Called after the entry directory and its files were deleted.
+         */
+        void onEvicted(File entryDir);
+    }
+
+    /**
+     * The entries handed out to one owner, e.g. a request whose result references them. They aren't
+     * evicted until {@link #release()}. Releasing doesn't evict anything itself: the owner has usually just
+     * handed the files to its caller, so they become the most recently used entries and anything over the
+     * quota is evicted by the next write.
+     */
+    public class Pins {
+        private final List<String> keys = new ArrayList<>();
+        private boolean released;
+
+        private void add(String key) {
+            synchronized (MediaCache.this) {
+                if (released) {
+                    return;
+                }
+                keys.add(key);
+                Integer count = pinCounts.get(key);
+                pinCounts.put(key, count != null ? count + 1 : 1);
+            }
+        }
+
+        /**
+         * Unpins every entry and marks it as recently used. Later getOrCreate calls with these pins don't
+         * pin anything.
+         */
+        public void release() {
+            synchronized (MediaCache.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                for (String key : keys) {
+                    Integer count = pinCounts.get(key);
+                    if (count == null || count <= 1) {
+                        pinCounts.remove(key);
+                    } else {
+                        pinCounts.put(key, count - 1);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                for (String key : keys) {
+                    // get() rather than containsKey() so the access order is updated
+                    if (entries.get(key) != null) {
+                        new File(root, key).setLastModified(now);
+                    }
+                }
+                keys.clear();
+            }
+        }
+    }
+
+    /**
+     * Serializes writers of one key. Removed from keyLocks when its last user is done.
+     */
+    private static class KeyLock {
+        int users;
+    }
+
+    private final File root;
+    private final long quotaBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Guarded by itself
+    private final Map<String, KeyLock> keyLocks = new HashMap<>();
+    // Guarded by this
+    private final Map<String, Integer> pinCounts = new HashMap<>();
+    private long totalBytes;
+    private boolean loaded;
+    private volatile EvictionListener evictionListener;
+
+    public MediaCache(File root, long quotaBytes) {
+        this.root = root;
+        this.quotaBytes = quotaBytes;
+    }
+
+    /**
+     * Builds a cache key from the parts identifying a source, e.g. URI, size and last-modified time.
+     */
+    public static String key(Object... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (Object part : parts) {
+            sb.append(part).append('\u0000');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(sb.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // SHA-1 and UTF-8 are always available on Android
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached file for the key, creating it with the writer on a miss.
+     * Concurrent requests for the same key wait for a single writer.
+     *
+     * @param key the entry key, see {@link #key(Object...)}
+     * @param fileName the file name to use for a new entry
+     * @param writer writes the entry content on a miss
+     * @return the cached file
+     * @throws IOException if the writer fails
+     */
+    public File getOrCreate(String key, String fileName, Writer writer) throws IOException {
+        return getOrCreate(key, fileName, writer, null);
+    }
+
+    /**
+     * Returns the cached file for the key like {@link #getOrCreate(String, String, Writer)}, pinned
+     * until the pins are released.
+     *
+     * @param pins the pins to add the entry to, or null
+     */
+    public File getOrCreate(String key, String fileName, Writer writer, Pins pins) throws IOException {
+        if (pins != null) {
+            // Before the entry exists, so no trim can evict it between the write and the caller using it
+            pins.add(key);
+        }
+        KeyLock lock;
+        synchronized (keyLocks) {
+            lock = keyLocks.get(key);
+            if (lock == null) {
+                lock = new KeyLock();
+                keyLocks.put(key, lock);
+            }
+            lock.users++;
+        }
+        try {
+            synchronized (lock) {
+                File cached = get(key);
+                if (cached != null) {
+                    return cached;
+                }
+                return put(key, fileName, writer);
+            }
+        } finally {
+            synchronized (keyLocks) {
+                // Only once nobody is waiting, so a waiter and a new caller never hold different locks
+                if (--lock.users == 0) {
+                    keyLocks.remove(key);
+                }
+            }
+        }
+    }
+
+    public void setEvictionListener(EvictionListener listener) {
+        this.evictionListener = listener;
+    }
+
+    /**
+     * Returns new, empty pins for one owner.
+     */
+    public Pins newPins() {
+        return new Pins();
+    }
+
+    /**
+     * Returns the cached file for the key and marks it as recently used, or null on a miss.
+     */
+    public File get(String key) {
+        synchronized (this) {
+            ensureLoaded();
+            // get() rather than containsKey() so the access order is updated
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+        File dir = new File(root, key);
+        File file = entryFile(dir);
+        if (file == null) {
+            remove(key);
+            return null;
+        }
+        dir.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Returns the cached file for the key like {@link #get(String)}, pinned until the pins are released.
+     * The key stays pinned on a miss, so an entry the caller creates next is protected as well.
+     *
+     * @param pins the pins to add the entry to, or null
+     */
+    public File get(String key, Pins pins) {
+        if (pins != null) {
+            pins.add(key);
+        }
+        return get(key);
+    }
+
+    /**
+     * Removes an entry and its files.
+     */
+    public void remove(String key) {
+        synchronized (this) {
+            ensureLoaded();
+            Long size = entries.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        delete(new File(root, key));
+    }
+
+    /**
+     * Returns true if the file is the content of a cache entry.
+     */
+    public boolean contains(File file) {
+        File dir = file.getParentFile();
+        return dir != null && root.equals(dir.getParentFile()) && !file.getName().startsWith(".");
+    }
+
+    /**
+     * Returns the content digests stored with a cache entry, by algorithm name, or an empty map.
+     *
+     * @param file a file returned by this cache, or the file a {@link Writer} is writing
+     */
+    public Map<String, String> getDigests(File file) {
+        Map<String, String> digests = new HashMap<>();
+        File sidecar = new File(file.getParentFile(), DIGESTS_FILE_NAME);
+        if (!sidecar.isFile()) {
+            return digests;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sidecar), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('=');
+                if (separator > 0) {
+                    digests.put(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read digests of " + file, e);
+        }
+        return digests;
+    }
+
+    /**
+     * Stores content digests with a cache entry, merged with the ones already stored.
+     * Entries never change after they are written, so stored digests stay valid for the entry's lifetime.
+     *
+     * @param file a file returned by this cache, or the file a {@link Writer} is writing
+     */
+    public synchronized void putDigests(File file, Map<String, String> digests) {
+        Map<String, String> merged = getDigests(file);
+        merged.putAll(digests);
+        File sidecar = new File(file.getParentFile(), DIGESTS_FILE_NAME);
+        File part = new File(sidecar.getPath() + PART_SUFFIX);
+        try {
+            try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(part), "UTF-8")) {
+                for (Map.Entry<String, String> digest : merged.entrySet()) {
+                    writer.write(digest.getKey() + "=" + digest.getValue() + "\n");
+                }
+            }
+            if (!part.renameTo(sidecar)) {
+                throw new IOException("Could not move " + part + " into place");
+            }
+        } catch (IOException e) {
+            // The digests are computed again next time
+            Log.w(TAG, "Could not store digests of " + file, e);
+            part.delete();
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    private File put(String key, String fileName, Writer writer) throws IOException {
+        File dir = new File(root, key);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create cache directory " + dir);
+        }
+        File target = new File(dir, sanitizeFileName(fileName));
+        File part = new File(dir, target.getName() + PART_SUFFIX);
+        try {
+            writer.write(part);
+            if (!part.renameTo(target)) {
+                throw new IOException("Could not move " + part + " into place");
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteRecursively(dir);
+            throw e;
+        }
+
+        synchronized (this) {
+            Long previous = entries.put(key, target.length());
+            totalBytes += target.length() - (previous != null ? previous : 0);
+            trimToQuota(key);
+        }
+        return target;
+    }
+
+    private void trimToQuota(String keep) {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > quotaBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep) || pinCounts.containsKey(eldest.getKey())) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= eldest.getValue();
+            delete(new File(root, eldest.getKey()));
+            Log.d(TAG, "Evicted " + eldest.getKey() + " (" + eldest.getValue() + " bytes)");
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] dirs = root.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        // Oldest first, so the access-ordered map starts in LRU order
+        List<File> sorted = new ArrayList<>(Arrays.asList(dirs));
+        Collections.sort(sorted, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File dir : sorted) {
+            File file = dir.isDirectory() ? entryFile(dir) : null;
+            if (file == null) {
+                // Leftover from an interrupted write
+                deleteRecursively(dir);
+                continue;
+            }
+            entries.put(dir.getName(), file.length());
+            totalBytes += file.length();
+        }
+        trimToQuota(null);
+    }
+
+    private void delete(File entryDir) {
+        deleteRecursively(entryDir);
+        EvictionListener listener = evictionListener;
+        if (listener != null) {
+            listener.onEvicted(entryDir);
+        }
+    }
+
+    private static File entryFile(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            if (file.isFile() && !file.getName().endsWith(PART_SUFFIX) && !file.getName().startsWith(".")) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static String sanitizeFileName(String fileName) {
+        String name = fileName.replaceAll("[/\\\\:*?\"<>|\\u0000]", "_");
+        return name.isEmpty() || name.startsWith(".") ? "media" + name : name;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+}
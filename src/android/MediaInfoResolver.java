@@ -0,0 +1,223 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves the displayed size, orientation and, for videos, duration and bitrate of a media item without
+ * decoding its pixels. Provider columns are used when present; anything missing is read from the image
+ * header (bounds-only decode and EXIF) or, for videos, from a single MediaMetadataRetriever session.
+ * Results are kept in a bounded in-memory cache, so getFileInfo on a just-picked item costs nothing.
+ */
+public class MediaInfoResolver {
+    private static final String TAG = "MediaInfoResolver";
+    private static final int MAX_ENTRIES = 256;
+
+    /**
+     * Layout information of one item. Unknown values are 0.
+     */
+    public static class MediaInfo {
+        /** Width and height as displayed, i.e. swapped when the orientation is 90 or 270 degrees. */
+        public int width;
+        public int height;
+        /** Clockwise rotation in degrees that displays the stored pixels upright. */
+        public int orientation;
+        /** Duration in milliseconds, for videos. */
+        public long duration;
+        /** Bits per second, for videos. */
+        public long bitrate;
+
+        public void putTo(JSONObject object) throws JSONException {
+            if (width > 0 && height > 0) {
+                object.put("width", width);
+                object.put("height", height);
+            }
+            object.put("orientation", orientation);
+            if (duration > 0) {
+                object.put("duration", duration);
+            }
+            if (bitrate > 0) {
+                object.put("bitrate", bitrate);
+            }
+        }
+    }
+
+    private final Context context;
+    private final ExifCache exifCache;
+    private final Map<String, MediaInfo> cache = new LinkedHashMap<String, MediaInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MediaInfo> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public MediaInfoResolver(Context context, ExifCache exifCache) {
+        this.context = context.getApplicationContext();
+        this.exifCache = exifCache;
+    }
+
+    /**
+     * Returns the layout information of an item.
+     *
+     * @param uri the item's URI, used when there is no local file
+     * @param file a local copy of the item, or null; reading a local file is cheaper than going through the provider
+     * @param metadata the provider columns of the item
+     */
+    public MediaInfo resolve(Uri uri, File file, MetadataResolver.Metadata metadata) {
+        String key = file != null
+                ? file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified()
+                : uri + ":" + metadata.size + ":" + metadata.lastModified;
+        synchronized (cache) {
+            MediaInfo cached = cache.get(key);
+            if (cached != null) {
+                MediaMetrics.count("mediaInfo.cacheHit");
+                return cached;
+            }
+        }
+
+        long start = MediaMetrics.start();
+        MediaInfo info = new MediaInfo();
+        info.width = metadata.width;
+        info.height = metadata.height;
+        info.duration = metadata.duration;
+        info.bitrate = metadata.bitrate;
+        int orientation = metadata.orientation;
+
+        if (metadata.isVideo()) {
+            if (info.width <= 0 || info.height <= 0 || info.duration <= 0 || orientation < 0) {
+                orientation = readVideo(info, orientation, uri, file);
+            }
+            long size = file != null ? file.length() : metadata.size;
+            if (info.bitrate <= 0 && info.duration > 0 && size > 0) {
+                // Average over the whole file, which is also what the retriever reports for most containers
+                info.bitrate = size * 8 * 1000 / info.duration;
+            }
+        } else if (metadata.mimeType == null || metadata.mimeType.startsWith("image")) {
+            if (info.width <= 0 || info.height <= 0) {
+                readBounds(info, uri, file);
+            }
+            if (orientation < 0) {
+                orientation = readImageRotation(uri, file);
+            }
+        }
+
+        info.orientation = Math.max(0, orientation);
+        if (info.orientation == 90 || info.orientation == 270) {
+            int width = info.width;
+            info.width = info.height;
+            info.height = width;
+        }
+        MediaMetrics.time("mediaInfo", start);
+
+        synchronized (cache) {
+            cache.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * Fills what the provider didn't report from one retriever session.
+     *
+     * @return the orientation, unchanged if already known
+     */
+    private int readVideo(MediaInfo info, int orientation, Uri uri, File file) {
+        MediaMetrics.count("mediaInfo.retriever");
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            if (file != null) {
+                retriever.setDataSource(file.getAbsolutePath());
+            } else {
+                retriever.setDataSource(context, uri);
+            }
+            if (info.width <= 0 || info.height <= 0) {
+                info.width = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+                info.height = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            }
+            if (info.duration <= 0) {
+                info.duration = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+            }
+            if (info.bitrate <= 0) {
+                info.bitrate = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE));
+            }
+            if (orientation < 0) {
+                orientation = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not read video metadata of " + (file != null ? file : uri), e);
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException | RuntimeException e) {
+                // nothing to do
+            }
+        }
+        return orientation;
+    }
+
+    private void readBounds(MediaInfo info, Uri uri, File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (file != null) {
+            BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        } else {
+            try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                BitmapFactory.decodeStream(in, null, options);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Could not read image bounds of " + uri, e);
+            }
+        }
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            info.width = options.outWidth;
+            info.height = options.outHeight;
+        }
+    }
+
+    private int readImageRotation(Uri uri, File file) {
+        if (file != null) {
+            try {
+                return exifCache.get(file.getAbsolutePath()).rotation;
+            } catch (IOException e) {
+                Log.d(TAG, "No EXIF for " + file + ": " + e);
+                return 0;
+            }
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            // ExifInterface can't read streams before Android 7
+            return 0;
+        }
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+                return 0;
+            }
+            return ExifCache.toRotation(new ExifInterface(in).getAttribute(ExifInterface.TAG_ORIENTATION));
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "No EXIF for " + uri + ": " + e);
+            return 0;
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
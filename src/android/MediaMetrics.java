@@ -0,0 +1,207 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide timings, sizes and counters of the plugin's hot paths, readable through the getMetrics action.
+ *
+ * Recording is a few atomic increments: each histogram keeps fixed log-scale buckets (four per power of two,
+ * so percentiles are within 25%) rather than the samples, and memory doesn't grow with the number of calls.
+ */
+public class MediaMetrics {
+    private static final String TAG = "MediaMetrics";
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = SUB_BUCKETS + 61 * SUB_BUCKETS;
+
+    private static volatile boolean enabled = true;
+    private static volatile boolean logging = false;
+
+    private static final ConcurrentHashMap<String, Histogram> timings = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> sizes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    /**
+     * A histogram of non-negative values with log-scale buckets.
+     */
+    static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucketOf(value));
+            count.incrementAndGet();
+            total.addAndGet(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile, capped at the maximum.
+         */
+        long percentile(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        JSONObject toJSON(double scale) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", count.get());
+            json.put("total", total.get() / scale);
+            json.put("p50", percentile(50) / scale);
+            json.put("p95", percentile(95) / scale);
+            json.put("max", max.get() / scale);
+            return json;
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - 2) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+            long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+        }
+    }
+
+    public static void setEnabled(boolean enabled) {
+        MediaMetrics.enabled = enabled;
+    }
+
+    public static void setLogging(boolean logging) {
+        MediaMetrics.logging = logging;
+    }
+
+    /**
+     * Returns a start time for {@link #time(String, long)}.
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records the time elapsed since start, a value returned by {@link #start()}.
+     */
+    public static void time(String name, long start) {
+        if (!enabled) {
+            return;
+        }
+        long micros = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        histogram(timings, name).record(micros);
+        if (logging) {
+            Log.d(TAG, name + " " + (micros / 1000.0) + " ms");
+        }
+    }
+
+    /**
+     * Records a size in bytes, e.g. of a copied file or of a result sent to JavaScript.
+     */
+    public static void bytes(String name, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        histogram(sizes, name).record(bytes);
+        if (logging) {
+            Log.d(TAG, name + " " + bytes + " bytes");
+        }
+    }
+
+    public static void count(String name) {
+        if (!enabled) {
+            return;
+        }
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * Returns the value of a counter, 0 if it was never incremented.
+     */
+    public static long counter(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * Returns {timings: {name: {count, total, p50, p95, max}}, sizes: {...}, counters: {name: count}}.
+     * Timings are in milliseconds, sizes in bytes.
+     */
+    public static JSONObject snapshot() throws JSONException {
+        JSONObject timingsJson = new JSONObject();
+        for (Map.Entry<String, Histogram> entry : timings.entrySet()) {
+            timingsJson.put(entry.getKey(), entry.getValue().toJSON(1000.0));
+        }
+        JSONObject sizesJson = new JSONObject();
+        for (Map.Entry<String, Histogram> entry : sizes.entrySet()) {
+            sizesJson.put(entry.getKey(), entry.getValue().toJSON(1.0));
+        }
+        JSONObject countersJson = new JSONObject();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            countersJson.put(entry.getKey(), entry.getValue().get());
+        }
+
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("timings", timingsJson);
+        snapshot.put("sizes", sizesJson);
+        snapshot.put("counters", countersJson);
+        return snapshot;
+    }
+
+    public static void reset() {
+        timings.clear();
+        sizes.clear();
+        counters.clear();
+    }
+
+    private static Histogram histogram(ConcurrentHashMap<String, Histogram> histograms, String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+}
@@ -1,18 +1,16 @@
 package com.dmc.mediaPickerPlugin;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.media.ExifInterface;
-import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.provider.MediaStore;
-import android.provider.OpenableColumns;
 import android.util.Base64;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
@@ -23,19 +21,32 @@ import androidx.activity.result.contract.ActivityResultContracts;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.PluginResult;
+import org.apache.cordova.engine.SystemWebView;
+import org.apache.cordova.engine.SystemWebViewEngine;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * MediaPicker plugin using Android Photo Picker API
@@ -43,73 +54,354 @@ import java.util.ArrayList;
  */
 public class MediaPicker extends CordovaPlugin {
     private static final String TAG = "MediaPicker";
+    private static final String BUSY_MESSAGE = "MediaPicker is busy, try again later";
     private static final int REQUEST_PICK_MEDIA = 200;
     private static final int REQUEST_TAKE_PHOTO = 201;
+    private static final String CACHE_DIR_NAME = "mediaPicker";
+    private static final String THUMBNAIL_CACHE_DIR_NAME = "mediaPickerThumbnails";
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    // Chunks sent by readFileChunks that JavaScript hasn't acknowledged yet
+    private static final int CHUNK_WINDOW = 4;
+    // The largest file fileToBase64 can encode, its Base64 has to fit in one array
+    private static final long MAX_BASE64_BYTES = (Integer.MAX_VALUE - 8) / 4 * 3L;
+    // The retriever decodes video frames at the video's resolution; assume full HD
+    private static final long VIDEO_FRAME_BYTES = BitmapHelper.bitmapBytes(1920, 1080);
+    private static final long MAX_BITMAP_POOL_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_VIDEO_FRAMES = 100;
 
-    private CallbackContext callback;
-    private int thumbnailQuality = 50;
-    private int quality = 100;
-    private int thumbnailW = 200;
-    private int thumbnailH = 200;
-    private int maxSelectCount = 10;
-    private int selectMode = 0; // 0 = image+video, 1 = image only, 2 = video only
+    private final Map<Integer, MediaRequest> requests = new ConcurrentHashMap<>();
+    // The running readFileChunks requests, by request id
+    private final ConcurrentHashMap<Integer, ChunkStream> chunkStreams = new ConcurrentHashMap<>();
+    // The getMedias or takePhoto request waiting for onActivityResult
+    private MediaRequest activityRequest;
+    // Thumbnail settings of the last getMedias call, used by requests that don't set their own
+    private volatile MediaRequest.Defaults thumbnailDefaults = MediaRequest.DEFAULTS;
+    private MediaCache mediaCache;
+    private ThumbnailCache thumbnailCache;
+    private MediaInfoResolver mediaInfoResolver;
+    // Each lane has its own decode budget, so a large compression never holds back thumbnails
+    private DecodeBudget interactiveDecodeBudget;
+    private DecodeBudget backgroundDecodeBudget;
+    private BitmapPool bitmapPool;
+    // Empties the bitmap pool when the system asks apps to release memory
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                bitmapPool.clear();
+            }
+        }
+
+        public void onLowMemory() {
+            bitmapPool.clear();
+        }
+
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+    private final ExifCache exifCache = new ExifCache();
+    private MediaScheduler scheduler;
+    private MediaUrlHandler mediaUrlHandler;
+    private boolean servingMediaUrls;
 
     @Override
-    public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
-        getPublicArgs(args);
+    protected void pluginInitialize() {
+        long quotaBytes = preferences.getInteger("MediaPickerCacheQuotaMB", (int) (MediaCache.DEFAULT_QUOTA_BYTES >> 20)) * 1024L * 1024L;
+        mediaCache = new MediaCache(new File(cordova.getActivity().getCacheDir(), CACHE_DIR_NAME), quotaBytes);
+        long thumbnailQuotaBytes = preferences.getInteger("MediaPickerThumbnailCacheMB", 64) * 1024L * 1024L;
+        int memoryBytes = (int) Math.min(16 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16);
+        thumbnailCache = new ThumbnailCache(new File(cordova.getActivity().getCacheDir(), THUMBNAIL_CACHE_DIR_NAME),
+                memoryBytes, thumbnailQuotaBytes);
+        mediaInfoResolver = new MediaInfoResolver(cordova.getActivity(), exifCache);
+        int decodeBudgetMB = preferences.getInteger("MediaPickerDecodeBudgetMB", 0);
+        long decodeBudgetBytes = decodeBudgetMB > 0 ? decodeBudgetMB * 1024L * 1024L
+                : DecodeBudget.defaultCapacity(cordova.getActivity());
+        interactiveDecodeBudget = new DecodeBudget(decodeBudgetBytes / 2);
+        backgroundDecodeBudget = new DecodeBudget(decodeBudgetBytes - decodeBudgetBytes / 2);
+        bitmapPool = new BitmapPool(Math.min(MAX_BITMAP_POOL_BYTES, decodeBudgetBytes / 8));
+        cordova.getActivity().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+        scheduler = new MediaScheduler(Runtime.getRuntime().availableProcessors(),
+                MediaRequest.defaultCopyConcurrency());
+        mediaUrlHandler = new MediaUrlHandler(preferences.getString("scheme", "https"),
+                preferences.getString("hostname", "localhost"));
+        mediaCache.setEvictionListener(mediaUrlHandler);
+        thumbnailCache.setEvictionListener(mediaUrlHandler);
+        if (webView != null && webView.getEngine() instanceof SystemWebViewEngine) {
+            // The plugin is loaded on startup, so this happens before the first page starts loading
+            SystemWebViewEngine engine = (SystemWebViewEngine) webView.getEngine();
+            ((SystemWebView) engine.getView()).setWebViewClient(new MediaWebViewClient(engine, mediaUrlHandler));
+            servingMediaUrls = true;
+        }
+        MediaMetrics.setEnabled(preferences.getBoolean("MediaPickerMetrics", true));
+        MediaMetrics.setLogging(preferences.getBoolean("MediaPickerLogMetrics", false));
+    }
 
+    @Override
+    public void onReset() {
+        // The page that made these requests is gone, nobody is listening for their results
+        for (MediaRequest request : requests.values()) {
+            request.finish();
+            request.getCancellationSignal().cancel();
+        }
+        activityRequest = null;
+    }
+
+    @Override
+    public void onDestroy() {
+        scheduler.shutdown();
+        cordova.getActivity().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        bitmapPool.clear();
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean execute(String action, final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        MediaRequest request = new MediaRequest(action, args, callbackContext, thumbnailDefaults, requests);
+        try {
+            return dispatch(action, args, request);
+        } catch (JSONException e) {
+            // Bad arguments, nothing was started that would finish the request
+            request.finish();
+            throw e;
+        }
+    }
+
+    private boolean dispatch(String action, final JSONArray args, final MediaRequest request) throws JSONException {
         if (action.equals("getMedias") || action.equals("photoLibrary")) {
-            this.getMedias(args, callbackContext);
+            this.getMedias(request);
             return true;
         } else if (action.equals("takePhoto")) {
-            this.takePhoto(args, callbackContext);
+            this.takePhoto(request);
             return true;
         } else if (action.equals("extractThumbnail")) {
-            this.extractThumbnail(args, callbackContext);
+            runWithLocalFile(request, pathOrUri(request.options), new LocalFileTask() {
+                public void run(String path) {
+                    extractThumbnail(request, path);
+                }
+
+                public void failed(Exception e) {
+                    // Like a failed render, the media object comes back without a thumbnail
+                    Log.w(TAG, "Could not copy " + pathOrUri(request.options), e);
+                    request.success(request.options);
+                }
+            });
+            return true;
+        } else if (action.equals("extractThumbnails")) {
+            this.extractThumbnails(args, request);
+            return true;
+        } else if (action.equals("extractVideoFrames")) {
+            if (tooManyFrames(request.options)) {
+                // Before the video is copied or opened, or anything is allocated for the frames
+                request.error("extractVideoFrames error: at most " + MAX_VIDEO_FRAMES + " frames per call");
+                return true;
+            }
+            runWithLocalFile(request, pathOrUri(request.options), new LocalFileTask() {
+                public void run(String path) {
+                    extractVideoFrames(request, path);
+                }
+
+                public void failed(Exception e) {
+                    request.error("extractVideoFrames error: " + e);
+                }
+            });
             return true;
         } else if (action.equals("compressImage")) {
-            this.compressImage(args, callbackContext);
+            runInLane(MediaScheduler.Lane.BACKGROUND, request, new Runnable() {
+                public void run() {
+                    compressImage(request);
+                }
+            });
             return true;
         } else if (action.equals("fileToBlob")) {
-            this.fileToBlob(args.getString(0), callbackContext);
+            final String path = args.getString(0);
+            final JSONObject options = args.optJSONObject(1) != null ? args.optJSONObject(1) : new JSONObject();
+            runInLane(MediaScheduler.Lane.BACKGROUND, request, new Runnable() {
+                public void run() {
+                    fileToBlob(path, options, request);
+                }
+            });
+            return true;
+        } else if (action.equals("readFileChunks")) {
+            final String path = args.getString(0);
+            final JSONObject options = args.optJSONObject(1) != null ? args.optJSONObject(1) : new JSONObject();
+            runInLane(MediaScheduler.Lane.BACKGROUND, request, new Runnable() {
+                public void run() {
+                    readFileChunks(path, options, request);
+                }
+            });
+            return true;
+        } else if (action.equals("fileChunkAck")) {
+            ChunkStream stream = chunkStreams.get(args.getInt(0));
+            if (stream != null) {
+                stream.acknowledge();
+            }
+            request.finish(); // fire and forget, JavaScript doesn't wait for a result
             return true;
         } else if (action.equals("getExifForKey")) {
-            this.getExifForKey(args.getString(0), args.getString(1), callbackContext);
+            final String path = args.getString(0);
+            final String tag = args.getString(1);
+            runWithLocalFile(request, path, new LocalFileTask() {
+                public void run(String localPath) {
+                    getExifForKey(localPath, tag, request);
+                }
+
+                public void failed(Exception e) {
+                    request.error("getExifForKey error: " + e.getMessage());
+                }
+            });
+            return true;
+        } else if (action.equals("getExif")) {
+            final String path = args.getString(0);
+            final JSONArray tags = args.optJSONArray(1);
+            runWithLocalFile(request, path, new LocalFileTask() {
+                public void run(String localPath) {
+                    getExif(localPath, tags, request);
+                }
+
+                public void failed(Exception e) {
+                    request.error("getExif error: " + e.getMessage());
+                }
+            });
             return true;
         } else if (action.equals("getFileInfo")) {
-            this.getFileInfo(args, callbackContext);
+            runInLane(MediaScheduler.Lane.BACKGROUND, request, new Runnable() {
+                public void run() {
+                    getFileInfo(args, request);
+                }
+            });
+            return true;
+        } else if (action.equals("getMediaUrl")) {
+            final String path = args.getString(0);
+            runInLane(MediaScheduler.Lane.BACKGROUND, request, new Runnable() {
+                public void run() {
+                    getMediaUrl(path, request);
+                }
+            });
+            return true;
+        } else if (action.equals("getCacheStats")) {
+            this.getCacheStats(request);
+            return true;
+        } else if (action.equals("getMetrics")) {
+            this.getMetrics(request);
+            return true;
+        } else if (action.equals("resetMetrics")) {
+            MediaMetrics.reset();
+            request.success(new JSONObject());
+            return true;
+        } else if (action.equals("cancel")) {
+            this.cancel(args.getString(0), request);
+            return true;
+        } else if (action.equals("cancelAll")) {
+            this.cancelAll(request);
             return true;
         }
+        request.finish();
         return false;
     }
 
-    private void takePhoto(JSONArray args, CallbackContext callbackContext) {
-        this.callback = callbackContext;
-        Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
-        if (intent.resolveActivity(cordova.getActivity().getPackageManager()) != null) {
-            cordova.startActivityForResult(this, intent, REQUEST_TAKE_PHOTO);
-        } else {
-            callbackContext.error("No camera app available");
+    /**
+     * Runs an action on a scheduler lane, failing the call right away when the lane is saturated
+     * so the bridge thread never blocks.
+     */
+    private void runInLane(MediaScheduler.Lane lane, MediaRequest request, Runnable task) {
+        if (!scheduler.trySubmit(lane, task)) {
+            request.error(BUSY_MESSAGE);
         }
     }
 
-    private void getMedias(JSONArray args, CallbackContext callbackContext) {
-        this.callback = callbackContext;
+    /**
+     * An interactive action on one item, continued with the item's local path.
+     */
+    private interface LocalFileTask {
+        void run(String path);
 
-        // Parse options
-        if (args != null && args.length() > 0) {
-            try {
-                JSONObject jsonObject = args.getJSONObject(0);
-                if (jsonObject.has("selectMode")) {
-                    selectMode = jsonObject.getInt("selectMode");
+        /**
+         * Called instead of run if the item couldn't be copied, was cancelled, or a lane was saturated.
+         */
+        void failed(Exception e);
+    }
+
+    /**
+     * Runs an action on the interactive lane with the local path of a file or content URI. A content URI
+     * that isn't in the media cache yet is copied on the background lane first, and the action is then
+     * queued on the interactive lane again, so a large copy never holds an interactive thread.
+     */
+    private void runWithLocalFile(final MediaRequest request, final String pathOrUri, final LocalFileTask task) {
+        runInLane(MediaScheduler.Lane.INTERACTIVE, request, new Runnable() {
+            public void run() {
+                withLocalFile(request, pathOrUri, task);
+            }
+        });
+    }
+
+    /**
+     * Continues the task with the local path of a file or content URI, see
+     * {@link #runWithLocalFile(MediaRequest, String, LocalFileTask)}. Called on the interactive lane.
+     */
+    private void withLocalFile(final MediaRequest request, String pathOrUri, final LocalFileTask task) {
+        if (!pathOrUri.startsWith("content://")) {
+            task.run(FileHelper.stripFileProtocol(pathOrUri));
+            return;
+        }
+        final Uri uri = Uri.parse(pathOrUri);
+        File cached = mediaCache.get(copyKey(uri, metadataResolver().resolve(uri)), request.getCachePins(mediaCache));
+        if (cached != null) {
+            task.run(cached.getAbsolutePath());
+            return;
+        }
+        MediaMetrics.count("interactive.deferredCopy");
+        boolean queued = scheduler.trySubmit(MediaScheduler.Lane.BACKGROUND, new Runnable() {
+            public void run() {
+                final String path;
+                try {
+                    path = copyUriToCache(uri, request).getAbsolutePath();
+                } catch (IOException | RuntimeException e) {
+                    task.failed(e);
+                    return;
                 }
-                if (jsonObject.has("maxSelectCount")) {
-                    maxSelectCount = jsonObject.getInt("maxSelectCount");
+                boolean continued = scheduler.trySubmit(MediaScheduler.Lane.INTERACTIVE, new Runnable() {
+                    public void run() {
+                        task.run(path);
+                    }
+                });
+                if (!continued) {
+                    task.failed(new IOException(BUSY_MESSAGE));
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing options", e);
             }
+        });
+        if (!queued) {
+            task.failed(new IOException(BUSY_MESSAGE));
+        }
+    }
+
+    /**
+     * Makes the request the one that receives the next activity result. Cordova delivers only one
+     * activity result per plugin, so a request still waiting for one is cancelled.
+     */
+    private void startActivityForResult(MediaRequest request, Intent intent, int requestCode) {
+        MediaRequest previous = activityRequest;
+        activityRequest = request;
+        if (previous != null) {
+            previous.error("Cancelled by " + request.action);
         }
+        cordova.startActivityForResult(this, intent, requestCode);
+    }
+
+    private void takePhoto(MediaRequest request) {
+        Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+        if (intent.resolveActivity(cordova.getActivity().getPackageManager()) != null) {
+            startActivityForResult(request, intent, REQUEST_TAKE_PHOTO);
+        } else {
+            request.error("No camera app available");
+        }
+    }
+
+    private void getMedias(MediaRequest request) {
+        // Thumbnail options given to getMedias apply to later thumbnail calls, as documented
+        thumbnailDefaults = request.toDefaults();
+        int selectMode = request.selectMode;
+        int maxSelectCount = request.maxSelectCount;
 
         Intent intent;
 
@@ -155,59 +447,31 @@ public class MediaPicker extends CordovaPlugin {
             }
         }
 
-        cordova.startActivityForResult(this, intent, REQUEST_PICK_MEDIA);
-    }
-
-    public void getPublicArgs(JSONArray args) {
-        JSONObject jsonObject = new JSONObject();
-        if (args != null && args.length() > 0) {
-            try {
-                jsonObject = args.getJSONObject(0);
-            } catch (Exception e) {
-                // ignore
-            }
-            try {
-                thumbnailQuality = jsonObject.getInt("thumbnailQuality");
-            } catch (Exception e) {
-                // use default
-            }
-            try {
-                thumbnailW = jsonObject.getInt("thumbnailW");
-            } catch (Exception e) {
-                // use default
-            }
-            try {
-                thumbnailH = jsonObject.getInt("thumbnailH");
-            } catch (Exception e) {
-                // use default
-            }
-            try {
-                quality = jsonObject.getInt("quality");
-            } catch (Exception e) {
-                // use default
-            }
-        }
+        startActivityForResult(request, intent, REQUEST_PICK_MEDIA);
     }
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent intent) {
         super.onActivityResult(requestCode, resultCode, intent);
+        MediaRequest request = activityRequest;
+        activityRequest = null;
+        if (request == null || request.isCancelled()) {
+            return;
+        }
 
         if (resultCode != Activity.RESULT_OK) {
-            if (callback != null) {
-                callback.success(new JSONArray()); // Return empty array on cancel
-            }
+            request.success(new JSONArray()); // Return empty array on cancel
             return;
         }
 
         if (requestCode == REQUEST_PICK_MEDIA) {
-            handleMediaPickerResult(intent);
+            handleMediaPickerResult(request, intent);
         } else if (requestCode == REQUEST_TAKE_PHOTO) {
-            handleTakePhotoResult(intent);
+            handleTakePhotoResult(request, intent);
         }
     }
 
-    private void handleMediaPickerResult(Intent intent) {
+    private void handleMediaPickerResult(final MediaRequest request, Intent intent) {
         final JSONArray jsonArray = new JSONArray();
         final ArrayList<Uri> selectedUris = new ArrayList<>();
 
@@ -222,265 +486,597 @@ public class MediaPicker extends CordovaPlugin {
             // Single selection
             selectedUris.add(intent.getData());
         }
+        // An item picked again may have been edited since, its size and date make the cache key
+        for (Uri uri : selectedUris) {
+            metadataResolver().invalidate(uri);
+        }
+
+        final int concurrency = Math.max(1, Math.min(request.copyConcurrency, selectedUris.size()));
+        final boolean stream = request.stream;
 
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try {
-                    int index = 0;
-                    for (Uri uri : selectedUris) {
-                        // Take persistable permission for the URI
-                        try {
-                            cordova.getActivity().getContentResolver().takePersistableUriPermission(
-                                    uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                        } catch (SecurityException e) {
-                            // Permission might not be persistable, that's OK
-                            Log.w(TAG, "Could not take persistable permission", e);
+                    // Copies run on the background lane, at most `concurrency` of this selection at a time
+                    final Semaphore inFlight = new Semaphore(concurrency);
+                    CompletionService<JSONObject> completion =
+                            new ExecutorCompletionService<>(scheduler.executor(MediaScheduler.Lane.BACKGROUND));
+                    for (int i = 0; i < selectedUris.size(); i++) {
+                        final Uri uri = selectedUris.get(i);
+                        final int index = i;
+                        inFlight.acquire();
+                        if (request.isCancelled()) {
+                            // Copies already running stop at their next chunk, the rest are never started
+                            return;
                         }
+                        completion.submit(new Callable<JSONObject>() {
+                            public JSONObject call() throws Exception {
+                                try {
+                                    return request.isCancelled() ? null : buildMediaObject(uri, index, request);
+                                } catch (OperationCanceledException e) {
+                                    return null;
+                                } catch (Exception e) {
+                                    Log.e(TAG, "Error processing selected media " + index, e);
+                                    return buildErrorObject(uri, index, e);
+                                } finally {
+                                    inFlight.release();
+                                }
+                            }
+                        });
+                    }
 
-                        JSONObject object = new JSONObject();
-
-                        // Copy file to app's cache directory to get a file path
-                        File cachedFile = copyUriToCache(uri);
-                        if (cachedFile != null) {
-                            object.put("path", cachedFile.getAbsolutePath());
-                            object.put("uri", Uri.fromFile(cachedFile).toString());
-                            object.put("size", cachedFile.length());
-                            object.put("name", cachedFile.getName());
-                        } else {
-                            object.put("path", "");
-                            object.put("uri", uri.toString());
-                            object.put("size", getFileSize(uri));
-                            object.put("name", getFileName(uri));
+                    // Items finish in any order; results are put back in selection order
+                    JSONObject[] results = new JSONObject[selectedUris.size()];
+                    for (int i = 0; i < results.length; i++) {
+                        JSONObject object = completion.take().get();
+                        if (object == null || request.isCancelled()) {
+                            return;
                         }
-
-                        object.put("index", index);
-
-                        String mimeType = getMimeType(uri);
-                        if (mimeType != null && mimeType.startsWith("video")) {
-                            object.put("mediaType", "video");
-                        } else {
-                            object.put("mediaType", "image");
+                        results[object.getInt("index")] = object;
+                        if (stream) {
+                            sendStreamMessage(request, streamMessage("item", object), true);
                         }
+                    }
 
-                        jsonArray.put(object);
-                        index++;
+                    if (stream) {
+                        JSONObject complete = new JSONObject();
+                        complete.put("count", results.length);
+                        sendStreamMessage(request, streamMessage("complete", complete), false);
+                    } else {
+                        for (JSONObject object : results) {
+                            jsonArray.put(object);
+                        }
+                        request.success(jsonArray);
                     }
-                    MediaPicker.this.callback.success(jsonArray);
                 } catch (Exception e) {
                     Log.e(TAG, "Error processing selected media", e);
-                    MediaPicker.this.callback.error("Error processing media: " + e.getMessage());
+                    request.error("Error processing media: " + e.getMessage());
                 }
             }
         });
     }
 
-    private void handleTakePhotoResult(Intent intent) {
+    private static JSONObject streamMessage(String type, JSONObject item) throws JSONException {
+        JSONObject message = new JSONObject();
+        message.put("type", type);
+        message.put("item", item);
+        return message;
+    }
+
+    /**
+     * Sends one message of a streamed result; every message but the last keeps the callback alive.
+     */
+    private static void sendStreamMessage(MediaRequest request, JSONObject message, boolean keepCallback) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, message);
+        result.setKeepCallback(keepCallback);
+        request.sendPluginResult(result);
+    }
+
+    private JSONObject buildMediaObject(Uri uri, int index, MediaRequest request) throws JSONException, IOException {
+        long start = MediaMetrics.start();
+        String copyMode = request.copyMode;
+        // Take persistable permission for the URI
+        try {
+            cordova.getActivity().getContentResolver().takePersistableUriPermission(
+                    uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            // Permission might not be persistable, that's OK
+            Log.w(TAG, "Could not take persistable permission", e);
+        }
+
+        JSONObject object = new JSONObject();
+        MetadataResolver.Metadata metadata = metadataResolver().resolve(uri);
+
+        if (MediaRequest.COPY_MODE_EAGER.equals(copyMode)) {
+            // Copy file to app's cache directory to get a file path
+            // A failed copy throws, so the item is reported with its error
+            File cachedFile = copyUriToCache(uri, request, request.hash);
+            object.put("path", cachedFile.getAbsolutePath());
+            object.put("uri", Uri.fromFile(cachedFile).toString());
+            object.put("size", cachedFile.length());
+            object.put("name", cachedFile.getName());
+            putDigests(object, contentDigests(cachedFile, request.hash, request.getCancellationSignal()));
+            mediaInfoResolver.resolve(uri, cachedFile, metadata).putTo(object);
+        } else {
+            // Reference the content URI directly; "lazy" hands out the URI as the path so that
+            // extractThumbnail, compressImage and fileToBlob materialize a cache copy on first use
+            object.put("path", MediaRequest.COPY_MODE_LAZY.equals(copyMode) ? uri.toString() : "");
+            object.put("uri", uri.toString());
+            object.put("size", metadata.size);
+            object.put("name", metadata.displayName);
+            object.put("mimeType", metadata.mimeType);
+            mediaInfoResolver.resolve(uri, null, metadata).putTo(object);
+        }
+
+        object.put("index", index);
+
+        if (metadata.isVideo()) {
+            object.put("mediaType", "video");
+        } else {
+            object.put("mediaType", "image");
+        }
+        MediaMetrics.time("pickItem", start);
+        return object;
+    }
+
+    private JSONObject buildErrorObject(Uri uri, int index, Throwable cause) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("path", "");
+        object.put("uri", uri.toString());
+        object.put("index", index);
+        boolean video;
+        try {
+            video = metadataResolver().resolve(uri).isVideo();
+        } catch (RuntimeException e) {
+            // The provider may be what failed
+            video = false;
+        }
+        object.put("mediaType", video ? "video" : "image");
+        object.put("error", cause != null ? String.valueOf(cause.getMessage()) : "Unknown error");
+        return object;
+    }
+
+    private void handleTakePhotoResult(final MediaRequest request, final Intent intent) {
         final JSONArray jsonArray = new JSONArray();
 
-        cordova.getThreadPool().execute(new Runnable() {
+        runInLane(MediaScheduler.Lane.BACKGROUND, request, new Runnable() {
             public void run() {
                 try {
                     Uri photoUri = intent.getData();
                     if (photoUri != null) {
                         JSONObject object = new JSONObject();
+                        metadataResolver().invalidate(photoUri);
 
-                        File cachedFile = copyUriToCache(photoUri);
-                        if (cachedFile != null) {
-                            object.put("path", cachedFile.getAbsolutePath());
-                            object.put("uri", Uri.fromFile(cachedFile).toString());
-                            object.put("size", cachedFile.length());
-                            object.put("name", cachedFile.getName());
-                        } else {
-                            object.put("path", "");
-                            object.put("uri", photoUri.toString());
-                            object.put("size", 0);
-                            object.put("name", "photo.jpg");
-                        }
+                        File cachedFile = copyUriToCache(photoUri, request);
+                        object.put("path", cachedFile.getAbsolutePath());
+                        object.put("uri", Uri.fromFile(cachedFile).toString());
+                        object.put("size", cachedFile.length());
+                        object.put("name", cachedFile.getName());
+                        mediaInfoResolver.resolve(photoUri, cachedFile, metadataResolver().resolve(photoUri))
+                                .putTo(object);
 
                         object.put("index", 0);
                         object.put("mediaType", "image");
                         jsonArray.put(object);
                     }
-                    MediaPicker.this.callback.success(jsonArray);
+                    request.success(jsonArray);
                 } catch (Exception e) {
                     Log.e(TAG, "Error processing photo", e);
-                    MediaPicker.this.callback.error("Error processing photo: " + e.getMessage());
+                    request.error("Error processing photo: " + e.getMessage());
                 }
             }
         });
     }
 
-    private File copyUriToCache(Uri uri) {
-        try {
-            ContentResolver resolver = cordova.getActivity().getContentResolver();
-            String fileName = getFileName(uri);
-            if (fileName == null || fileName.isEmpty()) {
-                String mimeType = getMimeType(uri);
-                String extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
-                fileName = "media_" + System.currentTimeMillis() + "." + (extension != null ? extension : "tmp");
-            }
+    /**
+     * Copies a content URI into the media cache, or returns the existing copy. The entry stays pinned
+     * until the request finishes.
+     *
+     * @param request its signal cancels the copy between chunks
+     * @return the cached file
+     * @throws IOException if the copy failed
+     * @throws OperationCanceledException if the copy was cancelled
+     */
+    private File copyUriToCache(Uri uri, MediaRequest request) throws IOException {
+        return copyUriToCache(uri, request, Collections.<String>emptyList());
+    }
+
+    /**
+     * Copies a content URI into the media cache, or returns the existing copy. A new copy is hashed
+     * with the given algorithms while it is written and its digests are stored with the cache entry.
+     *
+     * @param hash the digest algorithms to compute during the copy, may be empty
+     * @see #contentDigests(File, List, CancellationSignal)
+     */
+    private File copyUriToCache(final Uri uri, MediaRequest request, final List<String> hash) throws IOException {
+        final CancellationSignal signal = request.getCancellationSignal();
+        final ContentResolver resolver = cordova.getActivity().getContentResolver();
+        MetadataResolver.Metadata metadata = metadataResolver().resolve(uri);
+        String fileName = metadata.displayName;
+        if (fileName == null || fileName.isEmpty()) {
+            String extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(metadata.mimeType);
+            fileName = "media." + (extension != null ? extension : "tmp");
+        }
 
-            File cacheDir = cordova.getActivity().getCacheDir();
-            File outputFile = new File(cacheDir, fileName);
+        return mediaCache.getOrCreate(copyKey(uri, metadata), fileName, new MediaCache.Writer() {
+            public void write(File target) throws IOException {
+                if (hash.isEmpty()) {
+                    FileCopier.copy(resolver, uri, target, signal);
+                    return;
+                }
+                ContentDigest digest = new ContentDigest(hash);
+                FileCopier.copy(resolver, uri, target, signal, digest);
+                mediaCache.putDigests(target, digest.finish());
+            }
+        }, request.getCachePins(mediaCache));
+    }
 
-            InputStream inputStream = resolver.openInputStream(uri);
-            if (inputStream == null) return null;
+    /**
+     * Returns the media cache key of the copy of a content URI.
+     */
+    private static String copyKey(Uri uri, MetadataResolver.Metadata metadata) {
+        return metadata.size > 0 || metadata.lastModified > 0
+                ? MediaCache.key(uri, metadata.size, metadata.lastModified)
+                : MediaCache.key(uri, System.nanoTime()); // nothing to tell versions apart, never reuse
+    }
 
-            OutputStream outputStream = new FileOutputStream(outputFile);
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+    /**
+     * Returns the requested digests of a local file. Cache entries keep their digests, which are normally
+     * computed while the entry is copied; only digests missing there, and files outside the cache, are
+     * computed by reading the file.
+     */
+    private Map<String, String> contentDigests(File file, List<String> algorithms, CancellationSignal signal)
+            throws IOException {
+        if (algorithms.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (!mediaCache.contains(file)) {
+            return ContentDigest.ofFile(file, algorithms, signal);
+        }
+        Map<String, String> digests = mediaCache.getDigests(file);
+        List<String> missing = new ArrayList<>();
+        for (String algorithm : algorithms) {
+            if (!digests.containsKey(algorithm)) {
+                missing.add(algorithm);
             }
-            inputStream.close();
-            outputStream.close();
+        }
+        if (missing.isEmpty()) {
+            MediaMetrics.count("hash.stored");
+        } else {
+            Map<String, String> computed = ContentDigest.ofFile(file, missing, signal);
+            mediaCache.putDigests(file, computed);
+            digests.putAll(computed);
+        }
+        digests.keySet().retainAll(algorithms);
+        return digests;
+    }
 
-            return outputFile;
-        } catch (Exception e) {
-            Log.e(TAG, "Error copying URI to cache", e);
-            return null;
+    private static void putDigests(JSONObject object, Map<String, String> digests) throws JSONException {
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            object.put(digest.getKey(), digest.getValue());
         }
     }
 
-    private String getFileName(Uri uri) {
-        String result = null;
-        if (uri.getScheme().equals("content")) {
-            Cursor cursor = cordova.getActivity().getContentResolver().query(uri, null, null, null, null);
-            try {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex >= 0) {
-                        result = cursor.getString(nameIndex);
+    /**
+     * Returns a local file path for a path or URI, copying content URIs into the cache on first use.
+     */
+    private String resolveLocalPath(String pathOrUri, MediaRequest request) throws IOException {
+        if (pathOrUri.startsWith("content://")) {
+            return copyUriToCache(Uri.parse(pathOrUri), request).getAbsolutePath();
+        }
+        return FileHelper.stripFileProtocol(pathOrUri);
+    }
+
+    private String resolveLocalPath(JSONObject media, MediaRequest request) throws IOException {
+        return resolveLocalPath(pathOrUri(media), request);
+    }
+
+    /**
+     * Returns the path of a media object, or its URI if it has no local copy.
+     */
+    private static String pathOrUri(JSONObject media) {
+        String path = media.optString("path", "");
+        return path.isEmpty() ? media.optString("uri", "") : path;
+    }
+
+    private MetadataResolver metadataResolver() {
+        return MetadataResolver.getInstance(cordova.getActivity());
+    }
+
+    public void extractThumbnail(MediaRequest request, String path) {
+        request.success(renderThumbnail(request, request.options, path));
+    }
+
+    /**
+     * Renders thumbnails for an array of media objects on the thumbnail pool.
+     * Each result is sent as soon as it is ready as {type: "item", index, item}, in any order,
+     * followed by {type: "complete"}.
+     */
+    public void extractThumbnails(JSONArray args, final MediaRequest request) {
+        final JSONArray medias = args.optJSONArray(0);
+        if (medias == null) {
+            request.error("extractThumbnails error: expected an array of media objects");
+            return;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(medias.length());
+        if (medias.length() == 0) {
+            request.success(new JSONArray());
+            return;
+        }
+        // Queue from a pool thread, submitting waits whenever the interactive lane is full
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < medias.length() && !request.isCancelled(); i++) {
+                        final int index = i;
+                        final JSONObject media = medias.optJSONObject(i) != null ? medias.optJSONObject(i) : new JSONObject();
+                        final LocalFileTask task = new LocalFileTask() {
+                            public void run(String path) {
+                                sendThumbnail(request, media, path, index, medias.length(), remaining);
+                            }
+
+                            public void failed(Exception e) {
+                                Log.w(TAG, "Could not copy " + pathOrUri(media), e);
+                                sendThumbnail(request, media, null, index, medias.length(), remaining);
+                            }
+                        };
+                        scheduler.submit(MediaScheduler.Lane.INTERACTIVE, new Runnable() {
+                            public void run() {
+                                if (!request.isCancelled()) {
+                                    withLocalFile(request, pathOrUri(media), task);
+                                }
+                            }
+                        });
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    request.error("extractThumbnails interrupted");
                 }
-            } finally {
-                if (cursor != null) cursor.close();
+            }
+        });
+    }
+
+    /**
+     * Renders and sends one item of extractThumbnails.
+     *
+     * @param path the local path of the item, or null to send it without a thumbnail
+     */
+    private void sendThumbnail(MediaRequest request, JSONObject media, String path, int index, int count,
+                               AtomicInteger remaining) {
+        try {
+            JSONObject message = streamMessage("item", path != null ? renderThumbnail(request, media, path) : media);
+            message.put("index", index);
+            // Results can arrive from several workers at once
+            synchronized (request) {
+                sendStreamMessage(request, message, true);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error sending thumbnail " + index, e);
+        } finally {
+            // Also when this item failed, otherwise the caller would wait forever
+            if (remaining.decrementAndGet() == 0) {
+                sendThumbnailsComplete(request, count);
             }
         }
-        if (result == null) {
-            result = uri.getPath();
-            int cut = result != null ? result.lastIndexOf('/') : -1;
-            if (cut != -1) {
-                result = result.substring(cut + 1);
+    }
+
+    private void sendThumbnailsComplete(MediaRequest request, int count) {
+        try {
+            JSONObject complete = new JSONObject();
+            complete.put("count", count);
+            synchronized (request) {
+                sendStreamMessage(request, streamMessage("complete", complete), false);
             }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error sending thumbnails complete", e);
+            request.error("extractThumbnails error: " + e.getMessage());
         }
-        return result;
     }
 
-    private long getFileSize(Uri uri) {
-        long size = 0;
-        if (uri.getScheme().equals("content")) {
-            Cursor cursor = cordova.getActivity().getContentResolver().query(uri, null, null, null, null);
-            try {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
-                    if (sizeIndex >= 0) {
-                        size = cursor.getLong(sizeIndex);
-                    }
+    /**
+     * Extracts several frames of one video with a single retriever, e.g. for a filmstrip or scrubbing
+     * previews. Frames are extracted in time order and each is sent as soon as it is ready as
+     * {type: "item", index, item: {time, thumbnailBase64, thumbnailMimeType}}, index being the position in
+     * the requested times, followed by {type: "complete", count, duration}.
+     */
+    public void extractVideoFrames(MediaRequest request, String path) {
+        JSONObject options = request.options;
+        int width = request.thumbnailW;
+        int height = request.thumbnailH;
+        int quality = request.thumbnailQuality;
+        OutputFormat format = OutputFormat.parse(options.optString("thumbnailFormat", null));
+        boolean exact = options.optBoolean("exact", false);
+        CancellationSignal signal = request.getCancellationSignal();
+        try (DecodeBudget.Reservation reservation =
+                     reserveDecode(interactiveDecodeBudget,
+                             VIDEO_FRAME_BYTES + BitmapHelper.bitmapBytes(width, height), signal);
+             VideoFrameExtractor extractor = new VideoFrameExtractor(path)) {
+            final long[] times = frameTimes(options, extractor.getDurationMs());
+            // Seeking forward is cheaper for the decoder than jumping back and forth
+            Integer[] order = new Integer[times.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(times[a], times[b]);
                 }
-            } finally {
-                if (cursor != null) cursor.close();
+            });
+
+            for (int index : order) {
+                throwIfCanceled(signal);
+                JSONObject frame = new JSONObject();
+                frame.put("time", times[index]);
+                Bitmap bitmap = extractor.frameAt(times[index], width, height, exact, bitmapPool);
+                if (bitmap != null) {
+                    byte[] data = BitmapHelper.encode(bitmap, format.compressFormat(),
+                            format.encoderQuality(quality), true);
+                    BitmapHelper.release(bitmap, bitmapPool);
+                    frame.put("thumbnailBase64", Base64.encodeToString(data, Base64.NO_WRAP));
+                    frame.put("thumbnailMimeType", format.mimeType);
+                } else {
+                    frame.put("error", "No frame at " + times[index] + " ms");
+                }
+                JSONObject message = streamMessage("item", frame);
+                message.put("index", index);
+                sendStreamMessage(request, message, true);
             }
+
+            JSONObject complete = new JSONObject();
+            complete.put("count", times.length);
+            complete.put("duration", extractor.getDurationMs());
+            sendStreamMessage(request, streamMessage("complete", complete), false);
+        } catch (OperationCanceledException e) {
+            // The cancel action already failed the request
+        } catch (Exception e) {
+            request.error("extractVideoFrames error: " + e);
         }
-        return size;
     }
 
-    private String getMimeType(Uri uri) {
-        String mimeType = null;
-        if (uri.getScheme().equals("content")) {
-            mimeType = cordova.getActivity().getContentResolver().getType(uri);
-        } else {
-            String fileExtension = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
-            mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(fileExtension.toLowerCase());
-        }
-        return mimeType;
+    /**
+     * Returns true if the options ask for more than MAX_VIDEO_FRAMES frames.
+     */
+    private static boolean tooManyFrames(JSONObject options) {
+        JSONArray times = options.optJSONArray("times");
+        return (times != null && times.length() > MAX_VIDEO_FRAMES)
+                || options.optInt("frameCount", 0) > MAX_VIDEO_FRAMES;
     }
 
-    public void extractThumbnail(JSONArray args, CallbackContext callbackContext) {
-        JSONObject jsonObject = new JSONObject();
-        if (args != null && args.length() > 0) {
-            try {
-                jsonObject = args.getJSONObject(0);
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-            try {
-                thumbnailQuality = jsonObject.getInt("thumbnailQuality");
-            } catch (JSONException e) {
-                // use default
+    /**
+     * Returns the requested frame times in milliseconds: the times array, frameCount frames spread evenly
+     * over the video, or a single time. Without any of them, -1 for a representative frame.
+     * The caller has checked the counts against MAX_VIDEO_FRAMES with {@link #tooManyFrames(JSONObject)}.
+     */
+    private static long[] frameTimes(JSONObject options, long durationMs) {
+        JSONArray times = options.optJSONArray("times");
+        int count = options.optInt("frameCount", 0);
+        if (times != null && times.length() > 0) {
+            long[] result = new long[times.length()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = times.optLong(i, -1);
             }
-            try {
-                String path = jsonObject.getString("path");
-                jsonObject.put("exifRotate", getBitmapRotate(path));
-                int mediatype = "video".equals(jsonObject.getString("mediaType")) ? 3 : 1;
-                jsonObject.put("thumbnailBase64", extractThumbnail(path, mediatype, thumbnailQuality));
-            } catch (Exception e) {
-                e.printStackTrace();
+            return result;
+        }
+        if (count > 0 && durationMs > 0) {
+            // The middle of each of count equal segments, so neither the black first frame nor the end is used
+            long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = (2L * i + 1) * durationMs / (2L * count);
             }
-            callbackContext.success(jsonObject);
+            return result;
         }
+        return new long[]{options.optLong("time", -1)};
     }
 
-    public String extractThumbnail(String path, int mediaType, int quality) {
-        String encodedImage = null;
+    /**
+     * Renders the thumbnail of one media object into it. Settings on the media object take precedence
+     * over those of the request.
+     *
+     * @param path the local path of the media object's file
+     */
+    private JSONObject renderThumbnail(MediaRequest request, JSONObject jsonObject, String path) {
+        int width = jsonObject.optInt("thumbnailW", request.thumbnailW);
+        int height = jsonObject.optInt("thumbnailH", request.thumbnailH);
+        int quality = jsonObject.optInt("thumbnailQuality", request.thumbnailQuality);
+        OutputFormat format = OutputFormat.parse(jsonObject.optString("thumbnailFormat", null));
+        boolean rgb565 = jsonObject.optBoolean("thumbnailRgb565", false);
         try {
-            Bitmap thumbImage;
-            if (mediaType == 3) {
-                thumbImage = ThumbnailUtils.createVideoThumbnail(path, MediaStore.Images.Thumbnails.MINI_KIND);
+            int mediatype = "video".equals(jsonObject.getString("mediaType")) ? 3 : 1;
+            ThumbnailCache.Thumbnail thumbnail = getThumbnail(path, mediatype, width, height, quality, format, rgb565,
+                    request.getCancellationSignal());
+            jsonObject.put("exifRotate", thumbnail.rotation);
+            File thumbnailFile = servingMediaUrls && jsonObject.optBoolean("thumbnailAsUrl", false)
+                    && thumbnail.data != null
+                    ? thumbnailCache.getFile(thumbnailKey(path, mediatype, width, height, quality, format, rgb565))
+                    : null;
+            jsonObject.put("thumbnailMimeType", format.mimeType);
+            if (thumbnailFile != null) {
+                jsonObject.put("thumbnailUrl", mediaUrlHandler.register(thumbnailFile, format.mimeType));
             } else {
-                thumbImage = ThumbnailUtils.extractThumbnail(BitmapFactory.decodeFile(path), thumbnailW, thumbnailH);
-            }
-            if (thumbImage != null) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                thumbImage.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-                byte[] imageBytes = baos.toByteArray();
-                encodedImage = Base64.encodeToString(imageBytes, Base64.NO_WRAP);
-                baos.close();
+                long start = MediaMetrics.start();
+                jsonObject.put("thumbnailBase64", thumbnail.data != null
+                        ? Base64.encodeToString(thumbnail.data, Base64.NO_WRAP) : null);
+                MediaMetrics.time("base64", start);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return encodedImage;
+        return jsonObject;
     }
 
-    public void compressImage(JSONArray args, CallbackContext callbackContext) {
-        this.callback = callbackContext;
+    /**
+     * Returns the thumbnail of a file from the thumbnail cache, rendering and caching it on a miss.
+     */
+    private ThumbnailCache.Thumbnail getThumbnail(String path, int mediaType, int width, int height, int quality,
+                                                  OutputFormat format, boolean rgb565, CancellationSignal signal) {
+        String key = thumbnailKey(path, mediaType, width, height, quality, format, rgb565);
+        ThumbnailCache.Thumbnail thumbnail = thumbnailCache.get(key);
+        if (thumbnail == null) {
+            thumbnail = new ThumbnailCache.Thumbnail(extractThumbnailByte(path, mediaType, width, height, quality,
+                    format, rgb565, bitmapPool, signal), getBitmapRotate(path));
+            if (thumbnail.data != null) {
+                thumbnailCache.put(key, thumbnail, format.extension);
+            }
+        }
+        return thumbnail;
+    }
+
+    private static String thumbnailKey(String path, int mediaType, int width, int height, int quality,
+                                       OutputFormat format, boolean rgb565) {
+        // RGB_565 output differs, but keep the keys of existing ARGB_8888 entries
+        return ThumbnailCache.key(path, mediaType, width, height, quality,
+                rgb565 ? format.option + ":rgb565" : format.option);
+    }
+
+    public String extractThumbnail(String path, int mediaType, int quality) {
+        byte[] imageBytes = extractThumbnailByte(path, mediaType, quality);
+        return imageBytes != null ? Base64.encodeToString(imageBytes, Base64.NO_WRAP) : null;
+    }
+
+    public void compressImage(MediaRequest request) {
         try {
-            JSONObject jsonObject = args.getJSONObject(0);
-            String path = jsonObject.getString("path");
+            JSONObject jsonObject = request.options;
             int quality = jsonObject.getInt("quality");
-            if (quality < 100) {
-                File file = compressImageFile(path, quality);
+            int maxWidth = jsonObject.optInt("maxWidth", 0);
+            int maxHeight = jsonObject.optInt("maxHeight", 0);
+            long targetBytes = jsonObject.optLong("targetBytes", 0);
+            OutputFormat format = OutputFormat.parse(jsonObject.optString("format", null));
+            if (quality < 100 || maxWidth > 0 || maxHeight > 0 || targetBytes > 0 || format != OutputFormat.JPEG) {
+                CancellationSignal signal = request.getCancellationSignal();
+                File file = compressImageFile(resolveLocalPath(jsonObject, request), quality, maxWidth, maxHeight,
+                        targetBytes, format, signal, request.getCachePins(mediaCache));
                 jsonObject.put("path", file.getPath());
                 jsonObject.put("uri", Uri.fromFile(new File(file.getPath())));
                 jsonObject.put("size", file.length());
                 jsonObject.put("name", file.getName());
-                callbackContext.success(jsonObject);
+                jsonObject.put("mimeType", format.mimeType);
+                request.success(jsonObject);
             } else {
-                callbackContext.success(jsonObject);
+                request.success(jsonObject);
             }
         } catch (Exception e) {
-            callbackContext.error("compressImage error: " + e);
+            request.error("compressImage error: " + e);
             e.printStackTrace();
         }
     }
 
-    public void getFileInfo(JSONArray args, CallbackContext callbackContext) {
-        this.callback = callbackContext;
+    public void getFileInfo(JSONArray args, MediaRequest request) {
         try {
             String pathOrUri = args.getString(0);
             String type = args.getString(1);
+            JSONObject options = args.optJSONObject(2);
+            List<String> hash = ContentDigest.parseAlgorithms(options != null ? options.opt("hash") : null);
 
             File file;
+            Uri contentUri = null;
             if ("uri".equals(type)) {
                 Uri uri = Uri.parse(pathOrUri);
                 if (uri.getScheme() != null && uri.getScheme().equals("content")) {
-                    // Copy content URI to cache to get file info
-                    file = copyUriToCache(uri);
-                    if (file == null) {
-                        callbackContext.error("Could not access file");
-                        return;
-                    }
+                    // Copy content URI to cache to get file info, from fresh provider metadata
+                    contentUri = uri;
+                    metadataResolver().invalidate(uri);
+                    file = copyUriToCache(uri, request, hash);
                 } else {
                     file = new File(FileHelper.getRealPath(pathOrUri, cordova));
                 }
@@ -496,115 +1092,500 @@ public class MediaPicker extends CordovaPlugin {
             String mimeType = FileHelper.getMimeType(jsonObject.getString("uri"), cordova);
             String mediaType = mimeType != null && mimeType.contains("video") ? "video" : "image";
             jsonObject.put("mediaType", mediaType);
-            callbackContext.success(jsonObject);
+            MetadataResolver.Metadata metadata;
+            if (contentUri != null) {
+                // The provider may already know the dimensions and duration
+                metadata = metadataResolver().resolve(contentUri);
+            } else {
+                metadata = new MetadataResolver.Metadata();
+                metadata.mimeType = mimeType;
+            }
+            mediaInfoResolver.resolve(contentUri != null ? contentUri : Uri.fromFile(file), file, metadata)
+                    .putTo(jsonObject);
+            putDigests(jsonObject, contentDigests(file, hash, request.getCancellationSignal()));
+            request.success(jsonObject);
         } catch (Exception e) {
-            callbackContext.error("getFileInfo error: " + e);
+            request.error("getFileInfo error: " + e);
             e.printStackTrace();
         }
     }
 
-    public File compressImageFile(String path, int quality) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        String compFileName = "dmcMediaPickerCompress" + System.currentTimeMillis() + ".jpg";
-        File file = new File(cordova.getActivity().getCacheDir(), compFileName);
-        Bitmap bitmap = BitmapFactory.decodeFile(path);
-        if (bitmap != null) {
-            rotatingImage(getBitmapRotate(path), bitmap).compress(Bitmap.CompressFormat.JPEG, quality, baos);
-            try {
-                FileOutputStream fos = new FileOutputStream(file);
-                fos.write(baos.toByteArray());
-                fos.flush();
-                fos.close();
-            } catch (Exception e) {
-                MediaPicker.this.callback.error("compressImage error: " + e);
-                e.printStackTrace();
+    public void getMediaUrl(String pathOrUri, MediaRequest request) {
+        if (!servingMediaUrls) {
+            request.error("getMediaUrl error: not supported by this WebView engine");
+            return;
+        }
+        try {
+            File file = new File(resolveLocalPath(pathOrUri, request));
+            if (!file.isFile()) {
+                request.error("getMediaUrl error: file not found");
+                return;
             }
+            request.success(mediaUrlHandler.register(file, null));
+        } catch (Exception e) {
+            request.error("getMediaUrl error: " + e);
         }
-        return file;
     }
 
-    public int getBitmapRotate(String path) {
-        int degree = 0;
+    /**
+     * Cancels the requests started with the given job id.
+     * Succeeds with the number of requests that were still running.
+     */
+    public void cancel(String jobId, MediaRequest request) {
+        int cancelled = 0;
+        for (MediaRequest running : requests.values()) {
+            if (jobId.equals(running.jobId) && running.cancel()) {
+                cancelled++;
+            }
+        }
+        request.success(cancelled);
+    }
+
+    /**
+     * Cancels every running request, including a picker still waiting for the user.
+     */
+    public void cancelAll(MediaRequest request) {
+        int cancelled = 0;
+        for (MediaRequest running : requests.values()) {
+            if (running != request && running.cancel()) {
+                cancelled++;
+            }
+        }
+        request.success(cancelled);
+    }
+
+    /**
+     * Sends the recorded timings, sizes and counters; with {log: true} they are also written to logcat.
+     */
+    public void getMetrics(MediaRequest request) {
         try {
-            ExifInterface exifInterface = new ExifInterface(path);
-            int orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    degree = 90;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    degree = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    degree = 270;
-                    break;
+            JSONObject metrics = MediaMetrics.snapshot();
+            if (request.options.optBoolean("log", false)) {
+                Log.i(TAG, "Metrics: " + metrics.toString(2));
             }
+            request.success(metrics);
+        } catch (JSONException e) {
+            request.error("getMetrics error: " + e);
+        }
+    }
+
+    public void getCacheStats(MediaRequest request) {
+        try {
+            JSONObject stats = new JSONObject();
+            stats.put("mediaBytes", mediaCache.getTotalBytes());
+            stats.put("thumbnails", thumbnailCache.getStats());
+            stats.put("decodeBudgetBytes",
+                    interactiveDecodeBudget.getCapacityBytes() + backgroundDecodeBudget.getCapacityBytes());
+            stats.put("decodeReservedBytes",
+                    interactiveDecodeBudget.getReservedBytes() + backgroundDecodeBudget.getReservedBytes());
+            request.success(stats);
         } catch (Exception e) {
-            e.printStackTrace();
+            request.error("getCacheStats error: " + e);
         }
-        return degree;
     }
 
-    private static Bitmap rotatingImage(int angle, Bitmap bitmap) {
-        Matrix matrix = new Matrix();
-        matrix.postRotate(angle);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    public File compressImageFile(String path, int quality) throws IOException {
+        return compressImageFile(path, quality, 0, 0, 0, OutputFormat.JPEG);
     }
 
-    public byte[] extractThumbnailByte(String path, int mediaType, int quality) {
-        try {
-            Bitmap thumbImage;
-            if (mediaType == 3) {
-                thumbImage = ThumbnailUtils.createVideoThumbnail(path, MediaStore.Images.Thumbnails.MINI_KIND);
-            } else {
-                thumbImage = ThumbnailUtils.extractThumbnail(BitmapFactory.decodeFile(path), thumbnailW, thumbnailH);
+    /**
+     * Compresses an image into the media cache, rotated upright and scaled to fit maxWidth x maxHeight.
+     * The image is decoded subsampled and encoded straight into the cache file. With a targetBytes limit
+     * the quality, and if needed the resolution, is searched in memory and only the final result is written.
+     */
+    public File compressImageFile(String path, int quality, int maxWidth, int maxHeight, long targetBytes,
+                                  OutputFormat format) throws IOException {
+        return compressImageFile(path, quality, maxWidth, maxHeight, targetBytes, format, null);
+    }
+
+    /**
+     * Compresses an image like {@link #compressImageFile(String, int, int, int, long, OutputFormat)},
+     * giving up before the decode and before the encode once the signal is cancelled.
+     */
+    public File compressImageFile(String path, int quality, int maxWidth, int maxHeight, long targetBytes,
+                                  OutputFormat format, CancellationSignal signal) throws IOException {
+        return compressImageFile(path, quality, maxWidth, maxHeight, targetBytes, format, signal, null);
+    }
+
+    /**
+     * Compresses an image like {@link #compressImageFile(String, int, int, int, long, OutputFormat)},
+     * keeping the result pinned in the cache.
+     *
+     * @param pins the pins of the request the result is handed to, or null
+     */
+    private File compressImageFile(final String path, final int quality, final int maxWidth, final int maxHeight,
+                                   final long targetBytes, final OutputFormat format,
+                                   final CancellationSignal signal, MediaCache.Pins pins) throws IOException {
+        File source = new File(path);
+        String key = MediaCache.key("compress", source.getAbsolutePath(), source.length(), source.lastModified(),
+                quality, maxWidth, maxHeight, targetBytes, format.option);
+        String baseName = source.getName();
+        int dot = baseName.lastIndexOf('.');
+        if (dot > 0) {
+            baseName = baseName.substring(0, dot);
+        }
+
+        return mediaCache.getOrCreate(key, baseName + "." + format.extension, new MediaCache.Writer() {
+            public void write(File target) throws IOException {
+                writeCompressed(path, target, quality, maxWidth, maxHeight, targetBytes, format, signal);
+            }
+        }, pins);
+    }
+
+    /**
+     * Decodes, orients and encodes an image into target, the work of a compressImageFile cache miss.
+     */
+    private void writeCompressed(String path, File target, int quality, int maxWidth, int maxHeight,
+                                 long targetBytes, OutputFormat format, CancellationSignal signal) throws IOException {
+        throwIfCanceled(signal);
+        int rotation = getBitmapRotate(path);
+        long estimate = BitmapHelper.estimateOrientedBytes(path, rotation, maxWidth, maxHeight, targetBytes > 0);
+        try (DecodeBudget.Reservation reservation = reserveDecode(backgroundDecodeBudget, estimate, signal)) {
+            Bitmap bitmap = BitmapHelper.decodeOriented(path, rotation, maxWidth, maxHeight);
+            if (bitmap == null) {
+                throw new IOException("Could not decode " + path);
+            }
+            if (signal != null && signal.isCanceled()) {
+                bitmap.recycle();
+                throw new OperationCanceledException();
             }
+            long start = MediaMetrics.start();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+            try {
+                if (targetBytes > 0) {
+                    BitmapHelper.compressToSize(bitmap, format.compressFormat(), format.encoderQuality(quality),
+                            targetBytes).writeTo(out);
+                } else if (!bitmap.compress(format.compressFormat(), format.encoderQuality(quality), out)) {
+                    throw new IOException("Could not encode " + path);
+                }
+            } finally {
+                out.close();
+                bitmap.recycle();
+            }
+            MediaMetrics.time("encode", start);
+        }
+        MediaMetrics.bytes("compress", target.length());
+    }
+
+    /**
+     * Reserves decode memory from a lane's budget, waiting while other bitmap work holds too much of it.
+     */
+    private static DecodeBudget.Reservation reserveDecode(DecodeBudget budget, long bytes, CancellationSignal signal)
+            throws IOException {
+        try {
+            return budget.reserve(bytes, signal);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for decode memory");
+        }
+    }
+
+    /**
+     * Estimates the peak pixel memory of rendering a thumbnail: the decoded image or video frame and the
+     * scaled result.
+     */
+    private static long estimateThumbnailBytes(String path, int mediaType, int width, int height) {
+        long decoded = mediaType == 3 ? VIDEO_FRAME_BYTES : BitmapHelper.estimateSampledBytes(path, width, height);
+        return decoded + BitmapHelper.bitmapBytes(width, height);
+    }
+
+    public int getBitmapRotate(String path) {
+        try {
+            return exifCache.get(path).rotation;
+        } catch (IOException e) {
+            Log.d(TAG, "No EXIF for " + path + ": " + e);
+            return 0;
+        }
+    }
+
+    public byte[] extractThumbnailByte(String path, int mediaType, int quality) {
+        MediaRequest.Defaults defaults = thumbnailDefaults;
+        return extractThumbnailByte(path, mediaType, defaults.thumbnailW, defaults.thumbnailH, quality,
+                OutputFormat.JPEG);
+    }
+
+    public byte[] extractThumbnailByte(String path, int mediaType, int width, int height, int quality,
+                                       OutputFormat format) {
+        return extractThumbnailByte(path, mediaType, width, height, quality, format, false, bitmapPool, null);
+    }
+
+    /**
+     * Renders and encodes a thumbnail.
+     *
+     * @param rgb565 decode opaque images as RGB_565, half the pixel memory of ARGB_8888
+     * @param pool the pool bitmaps are taken from and returned to, or null to allocate fresh ones
+     * @param signal stops waiting for decode memory once cancelled, may be null
+     */
+    private byte[] extractThumbnailByte(String path, int mediaType, int width, int height, int quality,
+                                        OutputFormat format, boolean rgb565, BitmapPool pool,
+                                        CancellationSignal signal) {
+        try (DecodeBudget.Reservation reservation = reserveDecode(interactiveDecodeBudget,
+                estimateThumbnailBytes(path, mediaType, width, height), signal)) {
+            Bitmap thumbImage = createThumbnailBitmap(path, mediaType, width, height, rgb565, pool);
             if (thumbImage != null) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                thumbImage.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-                return baos.toByteArray();
+                long start = MediaMetrics.start();
+                byte[] data = BitmapHelper.encode(thumbImage, format.compressFormat(),
+                        format.encoderQuality(quality), pool != null);
+                BitmapHelper.release(thumbImage, pool);
+                MediaMetrics.time("encode", start);
+                MediaMetrics.bytes("thumbnail", data.length);
+                return data;
             }
+        } catch (OperationCanceledException e) {
+            // Nobody is waiting for this thumbnail anymore
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
-    public void getExifForKey(String path, String tag, CallbackContext callbackContext) {
+    private Bitmap createThumbnailBitmap(String path, int mediaType, int width, int height, boolean rgb565,
+                                        BitmapPool pool) {
+        if (mediaType == 3) {
+            // A representative frame, like MINI_KIND, but extracted at the thumbnail size
+            try (VideoFrameExtractor extractor = new VideoFrameExtractor(path)) {
+                return extractor.frameAt(-1, width, height, false, pool);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not extract video thumbnail", e);
+                return null;
+            }
+        }
+        // Decode subsampled to just above the thumbnail size, then crop/scale the small bitmap
+        Bitmap sampled = BitmapHelper.decodeSampled(path, width, height,
+                rgb565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888, pool);
+        if (sampled == null) {
+            return null;
+        }
+        long start = MediaMetrics.start();
+        Bitmap thumbnail = BitmapHelper.centerCrop(sampled, width, height, pool);
+        BitmapHelper.release(sampled, pool);
+        MediaMetrics.time("scale", start);
+        return thumbnail;
+    }
+
+    public void getExifForKey(String path, String tag, MediaRequest request) {
         try {
-            ExifInterface exifInterface = new ExifInterface(path);
-            String object = exifInterface.getAttribute(tag);
-            callbackContext.success(object);
+            String object = exifCache.get(path).getAttribute(tag);
+            request.success(object);
         } catch (Exception e) {
-            callbackContext.error("getExifForKey error: " + e.getMessage());
+            request.error("getExifForKey error: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * Returns the requested EXIF tags of a file in one object, every tag the file has if tags is null or empty.
+     * Requested tags the file doesn't have are null.
+     */
+    public void getExif(String path, JSONArray tags, MediaRequest request) {
+        try {
+            ExifCache.Exif exif = exifCache.get(path);
+            JSONObject result = new JSONObject();
+            if (tags == null || tags.length() == 0) {
+                for (Map.Entry<String, String> attribute : exif.attributes.entrySet()) {
+                    result.put(attribute.getKey(), attribute.getValue());
+                }
+            } else {
+                for (int i = 0; i < tags.length(); i++) {
+                    String tag = tags.getString(i);
+                    String value = exif.getAttribute(tag);
+                    result.put(tag, value != null ? value : JSONObject.NULL);
+                }
+            }
+            request.success(result);
+        } catch (Exception e) {
+            request.error("getExif error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the content of a file as Base64, or null if it can't be read or is too large for one string.
+     */
     public String fileToBase64(String path) {
-        byte[] data = null;
+        File file = new File(path);
+        if (file.length() > MAX_BASE64_BYTES) {
+            Log.e(TAG, "fileToBase64: " + path + " is too large, use readFileChunks");
+            return null;
+        }
         try {
-            BufferedInputStream in = new BufferedInputStream(new FileInputStream(path));
-            data = new byte[in.available()];
-            in.read(data);
-            in.close();
+            return Base64.encodeToString(FileHelper.readRange(file, 0, (int) file.length()), Base64.NO_WRAP);
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.e(TAG, "fileToBase64: could not read " + path, e);
+            return null;
         }
-        return Base64.encodeToString(data, Base64.NO_WRAP);
     }
 
-    public void fileToBlob(String path, CallbackContext callbackContext) {
-        byte[] data = null;
+    /**
+     * Sends a file, or the range given by the offset and length options, as one ArrayBuffer.
+     */
+    public void fileToBlob(String path, JSONObject options, MediaRequest request) {
+        byte[] data;
         try {
-            BufferedInputStream in = new BufferedInputStream(new FileInputStream(path));
-            data = new byte[in.available()];
-            in.read(data);
-            in.close();
+            File file = new File(resolveLocalPath(path, request));
+            long offset = Math.max(0, options.optLong("offset", 0));
+            long available = Math.max(0, file.length() - offset);
+            long length = options.has("length") ? Math.min(Math.max(0, options.optLong("length")), available)
+                    : available;
+            if (length > Integer.MAX_VALUE - 8) {
+                request.error("fileToBlob error: range too large, use readFileChunks");
+                return;
+            }
+            data = FileHelper.readRange(file, offset, (int) length);
         } catch (IOException e) {
-            callbackContext.error("fileToBlob " + e);
+            request.error("fileToBlob " + e);
             e.printStackTrace();
+            return;
+        }
+        request.success(data);
+    }
+
+    /**
+     * Streams a file, or the range given by the offset and length options, in chunks of chunkSize bytes.
+     * Each chunk is sent as a keep-callback result with two parts, {type: "chunk", offset, stream} and the
+     * ArrayBuffer, followed by {type: "complete", bytes}.
+     *
+     * At most CHUNK_WINDOW chunks are sent ahead of the fileChunkAck calls for the stream id, so memory stays
+     * bounded however large the file is and however slow the consumer.
+     */
+    public void readFileChunks(String path, JSONObject options, MediaRequest request) {
+        try {
+            File file = new File(resolveLocalPath(path, request));
+            int chunkSize = Math.max(MIN_CHUNK_SIZE,
+                    Math.min(MAX_CHUNK_SIZE, options.optInt("chunkSize", DEFAULT_CHUNK_SIZE)));
+            long position = Math.max(0, options.optLong("offset", 0));
+            long end = file.length();
+            if (options.has("length")) {
+                end = Math.min(end, position + Math.max(0, options.optLong("length")));
+            }
+            final ChunkStream stream = new ChunkStream(request, new FileInputStream(file), chunkSize, position, end);
+            chunkStreams.put(request.id, stream);
+            request.getCancellationSignal().setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                public void onCancel() {
+                    stream.close();
+                }
+            });
+            stream.run();
+        } catch (OperationCanceledException e) {
+            // The cancel action already failed the request
+        } catch (Exception e) {
+            request.error("readFileChunks error: " + e);
+        }
+    }
+
+    /**
+     * A running readFileChunks request. Chunks are read on the background lane until CHUNK_WINDOW of them
+     * are unacknowledged; the read then ends and the ack that frees the window queues the next one, so no
+     * thread waits for JavaScript.
+     */
+    private class ChunkStream implements Runnable {
+        private final MediaRequest request;
+        private final FileInputStream in;
+        private final int chunkSize;
+        private final long start;
+        private final long end;
+        // PluginResult encodes the bytes right away, so one buffer serves every chunk
+        private final byte[] buffer;
+        // Only touched by the single queued or running read
+        private long position;
+        // Guarded by this
+        private int unacknowledged;
+        private boolean reading = true;
+        private boolean closed;
+
+        ChunkStream(MediaRequest request, FileInputStream in, int chunkSize, long position, long end) {
+            this.request = request;
+            this.in = in;
+            this.chunkSize = chunkSize;
+            this.start = position;
+            this.position = position;
+            this.end = end;
+            this.buffer = new byte[(int) Math.min(chunkSize, Math.max(0, end - position))];
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    request.getCancellationSignal().throwIfCanceled();
+                    int read = position < end ? FileHelper.readFully(in.getChannel(), position, buffer,
+                            (int) Math.min(chunkSize, end - position)) : 0;
+                    if (read <= 0) {
+                        close();
+                        JSONObject complete = new JSONObject();
+                        complete.put("type", "complete");
+                        complete.put("bytes", position - start);
+                        request.success(complete);
+                        return;
+                    }
+                    synchronized (this) {
+                        // Before sending, the ack can arrive right after
+                        unacknowledged++;
+                    }
+                    sendChunk(read);
+                    position += read;
+                    synchronized (this) {
+                        if (unacknowledged >= CHUNK_WINDOW && position < end) {
+                            reading = false;
+                            return;
+                        }
+                    }
+                }
+            } catch (OperationCanceledException e) {
+                // The cancel action already failed the request
+                close();
+            } catch (Exception e) {
+                close();
+                request.error("readFileChunks error: " + e);
+            }
+        }
+
+        private void sendChunk(int read) throws JSONException {
+            JSONObject info = new JSONObject();
+            info.put("type", "chunk");
+            info.put("offset", position);
+            info.put("stream", request.id);
+            List<PluginResult> parts = new ArrayList<>();
+            parts.add(new PluginResult(PluginResult.Status.OK, info));
+            parts.add(new PluginResult(PluginResult.Status.OK,
+                    read == buffer.length ? buffer : Arrays.copyOf(buffer, read)));
+            PluginResult result = new PluginResult(PluginResult.Status.OK, parts);
+            result.setKeepCallback(true);
+            request.sendPluginResult(result);
+        }
+
+        /**
+         * Called from the bridge for each fileChunkAck; queues the next read if the stream was waiting.
+         */
+        void acknowledge() {
+            synchronized (this) {
+                unacknowledged--;
+                if (reading || closed) {
+                    return;
+                }
+                reading = true;
+            }
+            // The stream was already accepted, so a full lane delays the next read instead of failing it
+            scheduler.submitOrPark(MediaScheduler.Lane.BACKGROUND, this);
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            chunkStreams.remove(request.id);
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
         }
-        callbackContext.success(data);
     }
 }
@@ -0,0 +1,244 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.os.CancellationSignal;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One invocation of a plugin action: its id, its own CallbackContext and a snapshot of its options.
+ * Actions read their settings from the request instead of from fields of the plugin, so any number of
+ * requests can run at the same time without overwriting each other's callback or options.
+ *
+ * A request stays in the plugin's registry until its final result is sent. Requests can carry a job id
+ * chosen by the caller, which the cancel action uses to find them. Media cache entries handed out to a
+ * request are pinned until then, so its result never references an evicted file.
+ */
+public class MediaRequest {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    public static final String COPY_MODE_EAGER = "eager";
+    public static final String COPY_MODE_LAZY = "lazy";
+
+    /**
+     * Thumbnail settings used by requests that don't specify their own. Immutable, the plugin swaps
+     * the whole instance when getMedias is called with new values.
+     */
+    public static class Defaults {
+        public final int thumbnailW;
+        public final int thumbnailH;
+        public final int thumbnailQuality;
+
+        public Defaults(int thumbnailW, int thumbnailH, int thumbnailQuality) {
+            this.thumbnailW = thumbnailW;
+            this.thumbnailH = thumbnailH;
+            this.thumbnailQuality = thumbnailQuality;
+        }
+    }
+
+    public static final Defaults DEFAULTS = new Defaults(200, 200, 50);
+
+    public final int id;
+    public final String action;
+    /** The caller's job id, or null if none was given */
+    public final String jobId;
+    public final CallbackContext callbackContext;
+    /** The first argument if it is an object, otherwise empty */
+    public final JSONObject options;
+
+    public final int thumbnailW;
+    public final int thumbnailH;
+    public final int thumbnailQuality;
+
+    // getMedias options
+    public final int selectMode; // 0 = image+video, 1 = image only, 2 = video only
+    public final int maxSelectCount;
+    public final int copyConcurrency;
+    public final boolean stream;
+    public final String copyMode;
+    /** Digest algorithms to compute for copied items, see {@link ContentDigest#parseAlgorithms(Object)} */
+    public final List<String> hash;
+
+    private final CancellationSignal cancellation = new CancellationSignal();
+    private final Map<Integer, MediaRequest> registry;
+    private final long start = MediaMetrics.start();
+    private boolean finished;
+    private MediaCache.Pins cachePins;
+
+    public MediaRequest(String action, JSONArray args, CallbackContext callbackContext, Defaults defaults,
+                        Map<Integer, MediaRequest> registry) {
+        this.id = NEXT_ID.incrementAndGet();
+        this.action = action;
+        this.callbackContext = callbackContext;
+        JSONObject options = args != null ? args.optJSONObject(0) : null;
+        this.options = options != null ? options : new JSONObject();
+        this.jobId = findJobId(args);
+
+        this.thumbnailW = this.options.optInt("thumbnailW", defaults.thumbnailW);
+        this.thumbnailH = this.options.optInt("thumbnailH", defaults.thumbnailH);
+        this.thumbnailQuality = this.options.optInt("thumbnailQuality", defaults.thumbnailQuality);
+
+        this.selectMode = this.options.optInt("selectMode", 0);
+        this.maxSelectCount = this.options.optInt("maxSelectCount", 10);
+        this.copyConcurrency = this.options.has("copyConcurrency")
+                ? Math.max(1, this.options.optInt("copyConcurrency", 1)) : defaultCopyConcurrency();
+        this.stream = this.options.optBoolean("stream", false);
+        this.copyMode = this.options.optString("copyMode", COPY_MODE_EAGER);
+        this.hash = ContentDigest.parseAlgorithms(this.options.opt("hash"));
+
+        this.registry = registry;
+        registry.put(id, this);
+        MediaMetrics.count("request." + action);
+    }
+
+    public static int defaultCopyConcurrency() {
+        // Copies are I/O bound; more than a handful of streams just contend for flash bandwidth
+        return Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the jobId of the first object argument that has one. Actions taking an options object read it
+     * from there, the others accept an extra {jobId} argument.
+     */
+    private static String findJobId(JSONArray args) {
+        for (int i = 0; args != null && i < args.length(); i++) {
+            JSONObject arg = args.optJSONObject(i);
+            if (arg != null && arg.has("jobId")) {
+                return arg.optString("jobId");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the thumbnail settings of this request, for use as the defaults of later requests.
+     */
+    public Defaults toDefaults() {
+        return new Defaults(thumbnailW, thumbnailH, thumbnailQuality);
+    }
+
+    public void success(JSONObject message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(JSONArray message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(byte[] message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void success(int message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+    }
+
+    public void error(String message) {
+        sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    /**
+     * Sends a result to this request's callback. Results are serialized per request, and anything sent
+     * after the final result (one without keepCallback) is dropped.
+     */
+    public synchronized void sendPluginResult(PluginResult result) {
+        if (finished) {
+            return;
+        }
+        MediaMetrics.bytes("bridge." + action, payloadSize(result));
+        callbackContext.sendPluginResult(result);
+        if (!result.getKeepCallback()) {
+            MediaMetrics.time("action." + action, start);
+            finish();
+        }
+    }
+
+    /**
+     * Cancels the request: its callback gets a "Cancelled" error and the work checking
+     * {@link #getCancellationSignal()} stops at its next check.
+     *
+     * @return false if the request had already finished
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (finished) {
+                return false;
+            }
+            error("Cancelled");
+        }
+        MediaMetrics.count("cancelled");
+        cancellation.cancel();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancellation.isCanceled();
+    }
+
+    /**
+     * Returns the signal work done for this request checks between steps, e.g. between copied chunks.
+     */
+    public CancellationSignal getCancellationSignal() {
+        return cancellation;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the pins of the media cache entries this request hands out, released when it finishes.
+     */
+    public synchronized MediaCache.Pins getCachePins(MediaCache cache) {
+        if (cachePins == null) {
+            cachePins = cache.newPins();
+            if (finished) {
+                // Work still running after the result was sent has nobody to hand entries to
+                cachePins.release();
+            }
+        }
+        return cachePins;
+    }
+
+    /**
+     * Drops the request from the registry without sending anything, e.g. when the page was reloaded.
+     */
+    public synchronized void finish() {
+        finished = true;
+        registry.remove(id);
+        if (cachePins != null) {
+            cachePins.release();
+        }
+    }
+
+    /**
+     * Returns the length of the encoded message, about what crosses the bridge. The result encodes
+     * its message once, so this doesn't add work.
+     */
+    private static long payloadSize(PluginResult result) {
+        if (result.getMessageType() == PluginResult.MESSAGE_TYPE_MULTIPART) {
+            long size = 0;
+            for (int i = 0; i < result.getMultipartMessagesSize(); i++) {
+                size += payloadSize(result.getMultipartMessage(i));
+            }
+            return size;
+        }
+        String message = result.getMessage();
+        return message != null ? message.length() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return action + "#" + id + (jobId != null ? " (" + jobId + ")" : "");
+    }
+}
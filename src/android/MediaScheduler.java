@@ -0,0 +1,164 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the plugin's heavy work off the Cordova bridge thread, on two independent lanes:
+ * INTERACTIVE for thumbnails and other UI-critical reads, BACKGROUND for copies and compression.
+ * A thumbnail never waits behind a large copy because the lanes don't share threads.
+ *
+ * Each lane accepts a bounded number of queued tasks. Calls from the bridge use {@link #trySubmit}
+ * and get rejected when the lane is full; batch coordinators use {@link #submit}, which waits for room.
+ * Work that was already accepted and must not be dropped, like the next read of a stream, uses
+ * {@link #submitOrPark}, which holds it until a task of the lane finishes.
+ */
+public class MediaScheduler {
+    private static final String TAG = "MediaScheduler";
+
+    public enum Lane {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    private static class LaneExecutor {
+        final ExecutorService executor;
+        final Semaphore permits;
+        // Tasks waiting for a permit, started as running tasks finish
+        final Queue<Runnable> parked = new ConcurrentLinkedQueue<>();
+
+        LaneExecutor(final String name, int threads, int queueCapacity, final int priority) {
+            final AtomicInteger count = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        public void run() {
+                            Process.setThreadPriority(priority);
+                            r.run();
+                        }
+                    }, name + "-" + count.incrementAndGet());
+                }
+            });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+            this.permits = new Semaphore(threads + queueCapacity);
+        }
+
+        void run(final Runnable task) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            Log.e(TAG, "Task failed", e);
+                        } finally {
+                            permits.release();
+                            runParked();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        void runParked() {
+            while (!parked.isEmpty() && permits.tryAcquire()) {
+                Runnable task = parked.poll();
+                if (task == null) {
+                    // Another thread took it, whoever parks next retries on its own
+                    permits.release();
+                    return;
+                }
+                try {
+                    run(task);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not start parked task", e);
+                }
+            }
+        }
+    }
+
+    private final LaneExecutor interactive;
+    private final LaneExecutor background;
+
+    public MediaScheduler(int interactiveThreads, int backgroundThreads) {
+        interactive = new LaneExecutor("MediaPicker-interactive", interactiveThreads, 256,
+                Process.THREAD_PRIORITY_DEFAULT);
+        background = new LaneExecutor("MediaPicker-background", backgroundThreads, 64,
+                Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Queues a task unless the lane is full.
+     *
+     * @return false if the task was rejected because the lane's queue is full
+     */
+    public boolean trySubmit(Lane lane, Runnable task) {
+        LaneExecutor executor = lane(lane);
+        if (!executor.permits.tryAcquire()) {
+            return false;
+        }
+        executor.run(task);
+        return true;
+    }
+
+    /**
+     * Queues a task, or parks it until a task of the lane finishes if the lane is full. Never blocks,
+     * so it can be called from the bridge and from lane threads.
+     */
+    public void submitOrPark(Lane lane, Runnable task) {
+        LaneExecutor executor = lane(lane);
+        executor.parked.add(task);
+        // Parking after the last running task finished would leave it waiting for nothing
+        executor.runParked();
+    }
+
+    /**
+     * Queues a task, waiting for room in the lane. Must not be called from a lane thread.
+     */
+    public void submit(Lane lane, Runnable task) throws InterruptedException {
+        LaneExecutor executor = lane(lane);
+        executor.permits.acquire();
+        executor.run(task);
+    }
+
+    /**
+     * Returns an Executor view of a lane that waits for room, for use with ExecutorCompletionService.
+     */
+    public Executor executor(final Lane lane) {
+        return new Executor() {
+            public void execute(Runnable command) {
+                try {
+                    submit(lane, command);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            }
+        };
+    }
+
+    public void shutdown() {
+        interactive.executor.shutdownNow();
+        background.executor.shutdownNow();
+    }
+
+    private LaneExecutor lane(Lane lane) {
+        return lane == Lane.INTERACTIVE ? interactive : background;
+    }
+}
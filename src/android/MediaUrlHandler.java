@@ -0,0 +1,249 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves files registered by the plugin to the WebView from the app's own origin,
+ * e.g. https://localhost/__mediapicker__/&lt;id&gt;/photo.jpg, so thumbnails and cached media can be used
+ * directly by img, video and fetch instead of being sent over the bridge as Base64 or byte arrays.
+ *
+ * Only files explicitly registered through {@link #register(File, String)} are served. The URL changes with
+ * the file's size and modification time, so a response can be cached without going stale.
+ *
+ * Requests reach it through {@link MediaWebViewClient}, which passes on the request headers, so single byte
+ * ranges are answered with 206 Partial Content and a video element can seek.
+ */
+public class MediaUrlHandler implements MediaCache.EvictionListener {
+    private static final String TAG = "MediaUrlHandler";
+    private static final String PATH_PREFIX = "/__mediapicker__/";
+
+    private static class Entry {
+        final File file;
+        final String mimeType;
+
+        Entry(File file, String mimeType) {
+            this.file = file;
+            this.mimeType = mimeType;
+        }
+    }
+
+    private final String hostname;
+    private final String origin;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param scheme the scheme the app is served with, e.g. https
+     * @param hostname the host the app is served from, e.g. localhost
+     */
+    public MediaUrlHandler(String scheme, String hostname) {
+        this.hostname = hostname;
+        this.origin = scheme + "://" + hostname;
+    }
+
+    /**
+     * Makes the file available to the WebView and returns its URL.
+     *
+     * @param file the file to serve
+     * @param mimeType the content type to serve it with, or null to derive it from the file name
+     * @return the absolute URL of the file
+     */
+    public String register(File file, String mimeType) {
+        if (mimeType == null) {
+            mimeType = FileHelper.getMimeTypeForExtension(file.getName());
+        }
+        String id = MediaCache.key(file.getAbsolutePath(), file.length(), file.lastModified());
+        entries.put(id, new Entry(file, mimeType != null ? mimeType : "application/octet-stream"));
+        return origin + PATH_PREFIX + id + "/" + Uri.encode(file.getName());
+    }
+
+    /**
+     * Forgets the files of a deleted cache entry, so their URLs stop resolving and the entries don't pile up.
+     */
+    @Override
+    public void onEvicted(File entryDir) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (entryDir.equals(it.next().file.getParentFile())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Answers a request for a registered file.
+     *
+     * @param url the requested URL
+     * @param requestHeaders the request headers, may be null
+     * @return the response, or null if the URL isn't one of ours
+     */
+    public WebResourceResponse handle(Uri url, Map<String, String> requestHeaders) {
+        String path = url.getPath();
+        if (!hostname.equalsIgnoreCase(url.getHost()) || path == null || !path.startsWith(PATH_PREFIX)) {
+            return null;
+        }
+        String rest = path.substring(PATH_PREFIX.length());
+        int slash = rest.indexOf('/');
+        String id = slash > 0 ? rest.substring(0, slash) : rest;
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return error(404, "Not Found");
+        }
+        if (!entry.file.isFile()) {
+            entries.remove(id);
+            return error(404, "Not Found");
+        }
+
+        long length = entry.file.length();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept-Ranges", "bytes");
+        // The URL names this version of the file
+        headers.put("Cache-Control", "private, max-age=3600");
+        long[] range = parseRange(header(requestHeaders, "Range"), length);
+        if (range != null && range[0] >= length) {
+            headers.put("Content-Range", "bytes */" + length);
+            return new WebResourceResponse(entry.mimeType, null, 416, "Range Not Satisfiable", headers, null);
+        }
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(entry.file);
+            if (range == null) {
+                headers.put("Content-Length", String.valueOf(length));
+                return new WebResourceResponse(entry.mimeType, null, 200, "OK", headers, in);
+            }
+            in.getChannel().position(range[0]);
+            long count = range[1] - range[0] + 1;
+            headers.put("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+            headers.put("Content-Length", String.valueOf(count));
+            return new WebResourceResponse(entry.mimeType, null, 206, "Partial Content", headers,
+                    new LimitedInputStream(in, count));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open " + entry.file, e);
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // nothing to do
+                }
+            }
+            return error(404, "Not Found");
+        }
+    }
+
+    /**
+     * Parses a Range header holding a single byte range, e.g. bytes=0-1023, bytes=1024- or bytes=-512.
+     *
+     * @return the first and last offset of the range, the first one being at or past the end of the file if the
+     * range can't be satisfied, or null if the header is missing, malformed or asks for several ranges, in which
+     * case the whole file is served
+     */
+    static long[] parseRange(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length());
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                return suffix > 0 ? new long[] {Math.max(0, length - suffix), length - 1} : new long[] {length, length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start < 0 || (start < length && end < start)) {
+                return null;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey())) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static WebResourceResponse error(int status, String reason) {
+        return new WebResourceResponse("text/plain", "UTF-8", status, reason, new HashMap<String, String>(), null);
+    }
+
+    /**
+     * Ends the stream after the last byte of the range.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long count) {
+            super(in);
+            remaining = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
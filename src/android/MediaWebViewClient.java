@@ -0,0 +1,29 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import org.apache.cordova.engine.SystemWebViewClient;
+import org.apache.cordova.engine.SystemWebViewEngine;
+
+/**
+ * Cordova's WebView client with the plugin's media URLs in front of the app's own files.
+ *
+ * Plugin path handlers only get the request path, while this sees the request headers, which
+ * {@link MediaUrlHandler} needs to answer Range requests.
+ */
+public class MediaWebViewClient extends SystemWebViewClient {
+    private final MediaUrlHandler mediaUrlHandler;
+
+    public MediaWebViewClient(SystemWebViewEngine parentEngine, MediaUrlHandler mediaUrlHandler) {
+        super(parentEngine);
+        this.mediaUrlHandler = mediaUrlHandler;
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        WebResourceResponse response = mediaUrlHandler.handle(request.getUrl(), request.getRequestHeaders());
+        return response != null ? response : super.shouldInterceptRequest(view, request);
+    }
+}
@@ -0,0 +1,192 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves name, size, mime type and media columns of a URI with a single provider query,
+ * and keeps the results in a bounded in-memory cache shared by MediaPicker and FileHelper.
+ * The size and modification time identify a version of the content in the media cache, so the plugin
+ * invalidates a URI whenever it is picked again or its file info is requested.
+ */
+public class MetadataResolver {
+    private static final String TAG = "MetadataResolver";
+    private static final int MAX_ENTRIES = 256;
+
+    private static final String[] MEDIA_PROJECTION = {
+            OpenableColumns.DISPLAY_NAME,
+            OpenableColumns.SIZE,
+            MediaStore.MediaColumns.MIME_TYPE,
+            MediaStore.MediaColumns.DATE_MODIFIED,
+            MediaStore.MediaColumns.WIDTH,
+            MediaStore.MediaColumns.HEIGHT,
+            MediaStore.MediaColumns.DURATION,
+            MediaStore.MediaColumns.ORIENTATION,
+            MediaStore.MediaColumns.BITRATE
+    };
+
+    private static final String[] DOCUMENT_PROJECTION = {
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    private static MetadataResolver instance;
+
+    /**
+     * Metadata of a single URI. Unknown numeric values are 0, unknown strings are null.
+     */
+    public static class Metadata {
+        public String displayName;
+        public long size;
+        public String mimeType;
+        /** Last modification time in milliseconds. */
+        public long lastModified;
+        public int width;
+        public int height;
+        /** Duration in milliseconds, for audio and video. */
+        public long duration;
+        /** Clockwise rotation in degrees, or -1 if the provider doesn't report it. */
+        public int orientation = -1;
+        /** Bits per second, for audio and video. */
+        public long bitrate;
+
+        public boolean isVideo() {
+            return mimeType != null && mimeType.startsWith("video");
+        }
+    }
+
+    private final Context context;
+    private final Map<String, Metadata> cache = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private MetadataResolver(Context context) {
+        this.context = context;
+    }
+
+    public static synchronized MetadataResolver getInstance(Context context) {
+        if (instance == null) {
+            instance = new MetadataResolver(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the metadata of the URI, querying the provider only on the first call for a URI since it was
+     * last invalidated.
+     */
+    public Metadata resolve(Uri uri) {
+        String key = uri.toString();
+        synchronized (cache) {
+            Metadata cached = cache.get(key);
+            if (cached != null) {
+                MediaMetrics.count("metadata.cacheHit");
+                return cached;
+            }
+        }
+
+        long start = MediaMetrics.start();
+        Metadata metadata = "content".equals(uri.getScheme()) ? queryProvider(uri) : statFile(uri);
+        MediaMetrics.time("providerQuery", start);
+        if (metadata.displayName == null) {
+            String path = uri.getPath();
+            int cut = path != null ? path.lastIndexOf('/') : -1;
+            metadata.displayName = cut != -1 ? path.substring(cut + 1) : path;
+        }
+        if (metadata.mimeType == null && metadata.displayName != null) {
+            metadata.mimeType = FileHelper.getMimeTypeForExtension(metadata.displayName);
+        }
+
+        synchronized (cache) {
+            cache.put(key, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Drops the cached metadata of the URI, e.g. after its content changed.
+     */
+    public void invalidate(Uri uri) {
+        synchronized (cache) {
+            cache.remove(uri.toString());
+        }
+    }
+
+    private Metadata queryProvider(Uri uri) {
+        ContentResolver resolver = context.getContentResolver();
+        boolean document = DocumentsContract.isDocumentUri(context, uri);
+        Metadata metadata = new Metadata();
+
+        Cursor cursor;
+        try {
+            cursor = resolver.query(uri, document ? DOCUMENT_PROJECTION : MEDIA_PROJECTION, null, null, null);
+        } catch (RuntimeException e) {
+            // Some providers reject columns they don't know, let them pick the columns
+            Log.d(TAG, "Projection rejected by " + uri.getAuthority() + ", querying all columns");
+            cursor = resolver.query(uri, null, null, null, null);
+        }
+        try {
+            if (cursor != null && cursor.moveToFirst()) {
+                metadata.displayName = getString(cursor, OpenableColumns.DISPLAY_NAME);
+                metadata.size = getLong(cursor, OpenableColumns.SIZE);
+                metadata.mimeType = getString(cursor, MediaStore.MediaColumns.MIME_TYPE);
+                metadata.lastModified = getLong(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (metadata.lastModified == 0) {
+                    // MediaStore reports seconds
+                    metadata.lastModified = getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED) * 1000;
+                }
+                metadata.width = (int) getLong(cursor, MediaStore.MediaColumns.WIDTH);
+                metadata.height = (int) getLong(cursor, MediaStore.MediaColumns.HEIGHT);
+                metadata.duration = getLong(cursor, MediaStore.MediaColumns.DURATION);
+                metadata.bitrate = getLong(cursor, MediaStore.MediaColumns.BITRATE);
+                int orientation = cursor.getColumnIndex(MediaStore.MediaColumns.ORIENTATION);
+                if (orientation >= 0 && !cursor.isNull(orientation)) {
+                    metadata.orientation = cursor.getInt(orientation);
+                }
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        if (metadata.mimeType == null) {
+            metadata.mimeType = resolver.getType(uri);
+        }
+        return metadata;
+    }
+
+    private static Metadata statFile(Uri uri) {
+        Metadata metadata = new Metadata();
+        if (uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            metadata.displayName = file.getName();
+            metadata.size = file.length();
+            metadata.lastModified = file.lastModified();
+        }
+        return metadata;
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index >= 0 && !cursor.isNull(index) ? cursor.getString(index) : null;
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index >= 0 && !cursor.isNull(index) ? cursor.getLong(index) : 0;
+    }
+}
@@ -0,0 +1,84 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Image output formats accepted by compressImage and the thumbnail actions.
+ */
+public enum OutputFormat {
+    JPEG("jpeg", "image/jpeg", "jpg"),
+    PNG("png", "image/png", "png"),
+    WEBP("webp", "image/webp", "webp"),
+    WEBP_LOSSLESS("webp_lossless", "image/webp", "webp"),
+    HEIF("heif", "image/heif", "heic");
+
+    public final String option;
+    public final String mimeType;
+    public final String extension;
+
+    OutputFormat(String option, String mimeType, String extension) {
+        this.option = option;
+        this.mimeType = mimeType;
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the format with the given option name, JPEG if the name is empty or unknown.
+     * The result is already resolved to a format the device can encode, see {@link #resolve()}.
+     */
+    public static OutputFormat parse(String name) {
+        if (name != null) {
+            for (OutputFormat format : values()) {
+                if (format.option.equalsIgnoreCase(name)) {
+                    return format.resolve();
+                }
+            }
+        }
+        return JPEG;
+    }
+
+    /**
+     * Returns this format, or the closest one the device's Bitmap encoder supports.
+     * Bitmap.compress has no HEIF encoder, so HEIF falls back to JPEG. Lossless WEBP can only be written from
+     * Android 10, so before that it falls back to PNG, which is lossless too.
+     */
+    public OutputFormat resolve() {
+        if (this == HEIF) {
+            return JPEG;
+        }
+        if (this == WEBP_LOSSLESS && Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return PNG;
+        }
+        return this;
+    }
+
+    @SuppressWarnings("deprecation")
+    public Bitmap.CompressFormat compressFormat() {
+        switch (this) {
+            case PNG:
+                return Bitmap.CompressFormat.PNG;
+            case WEBP:
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                        ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+            case WEBP_LOSSLESS:
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                        ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP;
+            default:
+                return Bitmap.CompressFormat.JPEG;
+        }
+    }
+
+    /**
+     * Returns the quality to pass to Bitmap.compress. On Android 10 the deprecated WEBP format writes lossless
+     * WEBP at quality 100 and lossy WEBP below it, so lossless uses 100 and lossy is capped at 99. Earlier
+     * versions always write lossy WEBP, and Android 11 has a separate format for each.
+     */
+    @SuppressWarnings("deprecation")
+    public int encoderQuality(int quality) {
+        if (Build.VERSION.SDK_INT == Build.VERSION_CODES.Q && compressFormat() == Bitmap.CompressFormat.WEBP) {
+            return this == WEBP_LOSSLESS ? 100 : Math.min(quality, 99);
+        }
+        return quality;
+    }
+}
@@ -0,0 +1,160 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-level cache for encoded thumbnails: a memory LRU in front of a {@link MediaCache} on disk.
+ * Entries are keyed on the source identity (path, size, mtime) and the render parameters,
+ * and also remember the EXIF rotation so a hit doesn't need to parse the source again.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+
+    /**
+     * An encoded thumbnail and the EXIF rotation of its source.
+     */
+    public static class Thumbnail {
+        public final byte[] data;
+        public final int rotation;
+
+        public Thumbnail(byte[] data, int rotation) {
+            this.data = data;
+            this.rotation = rotation;
+        }
+    }
+
+    private final LruCache<String, Thumbnail> memory;
+    private final MediaCache disk;
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ThumbnailCache(File root, int memoryBytes, long diskBytes) {
+        this.memory = new LruCache<String, Thumbnail>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Thumbnail value) {
+                return value.data.length;
+            }
+        };
+        this.disk = new MediaCache(root, diskBytes);
+    }
+
+    /**
+     * Builds the key of a thumbnail from its source file and render parameters.
+     */
+    public static String key(String path, int mediaType, int width, int height, int quality, String format) {
+        File source = new File(path);
+        return MediaCache.key("thumbnail", source.getAbsolutePath(), source.length(), source.lastModified(),
+                mediaType, width, height, quality, format);
+    }
+
+    /**
+     * Returns the cached thumbnail for the key, or null on a miss.
+     */
+    public Thumbnail get(String key) {
+        Thumbnail thumbnail = memory.get(key);
+        if (thumbnail != null) {
+            memoryHits.incrementAndGet();
+            return thumbnail;
+        }
+
+        File file = disk.get(key);
+        if (file != null) {
+            try {
+                thumbnail = new Thumbnail(readFile(file), parseRotation(file.getName()));
+                memory.put(key, thumbnail);
+                diskHits.incrementAndGet();
+                return thumbnail;
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read cached thumbnail " + file, e);
+                disk.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a thumbnail in memory and on disk.
+     *
+     * @param extension the file extension matching the encoded format
+     */
+    public void put(String key, final Thumbnail thumbnail, String extension) {
+        memory.put(key, thumbnail);
+        try {
+            // The rotation is kept in the file name, the file holds the encoded image as is
+            disk.getOrCreate(key, "r" + thumbnail.rotation + "." + extension, new MediaCache.Writer() {
+                public void write(File target) throws IOException {
+                    FileOutputStream out = new FileOutputStream(target);
+                    try {
+                        out.write(thumbnail.data);
+                    } finally {
+                        out.close();
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.w(TAG, "Could not store thumbnail", e);
+        }
+    }
+
+    /**
+     * Sets the listener told about thumbnails deleted from disk.
+     */
+    public void setEvictionListener(MediaCache.EvictionListener listener) {
+        disk.setEvictionListener(listener);
+    }
+
+    /**
+     * Returns the on-disk file of a cached thumbnail, or null if it isn't stored on disk.
+     */
+    public File getFile(String key) {
+        return disk.get(key);
+    }
+
+    public JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("memoryBytes", memory.size());
+        stats.put("diskBytes", disk.getTotalBytes());
+        return stats;
+    }
+
+    private static int parseRotation(String fileName) {
+        try {
+            return Integer.parseInt(fileName.substring(1, fileName.indexOf('.')));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
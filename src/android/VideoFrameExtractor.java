@@ -0,0 +1,102 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Extracts frames of one video at a requested size, keeping a single MediaMetadataRetriever open so
+ * that several frames, e.g. a filmstrip for scrubbing, share one parse of the container.
+ *
+ * On Android 8.1 and later frames are scaled by the retriever while they are converted, so only a bitmap of
+ * about the requested size is allocated. Older versions get the full-size frame and scale it down.
+ */
+public class VideoFrameExtractor implements Closeable {
+    private final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+    private final int videoWidth;
+    private final int videoHeight;
+    private final long durationMs;
+
+    /**
+     * Opens a local video file.
+     *
+     * @throws IOException if the file can't be opened as a video
+     */
+    public VideoFrameExtractor(String path) throws IOException {
+        MediaMetrics.count("videoFrames.session");
+        try {
+            retriever.setDataSource(path);
+        } catch (RuntimeException e) {
+            close();
+            throw new IOException("Could not open video " + path, e);
+        }
+        int width = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+        int height = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+        long rotation = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+        // Frames come out rotated upright
+        boolean swap = rotation == 90 || rotation == 270;
+        videoWidth = swap ? height : width;
+        videoHeight = swap ? width : height;
+        durationMs = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+    }
+
+    /**
+     * Returns the duration of the video in milliseconds, 0 if unknown.
+     */
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Returns the frame at the given time, scaled and center-cropped to exactly width x height.
+     *
+     * @param timeMs the time of the frame in milliseconds, or a negative value for a representative frame
+     * @param exact decode the frame closest to timeMs instead of the nearest key frame, slower
+     * @param pool the pool the result is drawn into, or null
+     * @return the frame, or null if there is none at that time
+     */
+    public Bitmap frameAt(long timeMs, int width, int height, boolean exact, BitmapPool pool) {
+        long start = MediaMetrics.start();
+        long timeUs = timeMs < 0 ? -1 : timeMs * 1000;
+        int option = exact ? MediaMetadataRetriever.OPTION_CLOSEST : MediaMetadataRetriever.OPTION_CLOSEST_SYNC;
+        Bitmap frame;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 && videoWidth > 0 && videoHeight > 0) {
+            // The retriever fits the frame inside the box; make the box large enough to cover width x height
+            float scale = Math.min(1f, Math.max((float) width / videoWidth, (float) height / videoHeight));
+            frame = retriever.getScaledFrameAtTime(timeUs, option,
+                    Math.max(1, Math.round(videoWidth * scale)), Math.max(1, Math.round(videoHeight * scale)));
+        } else {
+            frame = retriever.getFrameAtTime(timeUs, option);
+        }
+        if (frame == null) {
+            return null;
+        }
+        Bitmap result = BitmapHelper.centerCrop(frame, width, height, pool);
+        frame.recycle();
+        MediaMetrics.time("videoFrame", start);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        try {
+            retriever.release();
+        } catch (IOException | RuntimeException e) {
+            // nothing to do
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.dmc.mediaPickerPlugin;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+/**
+ * An empty activity for MediaBenchmark to run the plugin in, CordovaInterface needs one.
+ */
+public class BenchmarkActivity extends AppCompatActivity {
+}
@@ -0,0 +1,832 @@
+package com.dmc.mediaPickerPlugin;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.core.content.FileProvider;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterfaceImpl;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-device benchmark of the copy, thumbnail, video frame and compression pipelines, run as an instrumentation
+ * test. The report is written to logcat with the tag MediaBenchmark.
+ *
+ * The pipelines are measured through MediaPicker.execute, like calls from JavaScript, so the media and
+ * thumbnail caches, the EXIF cache, the decode budgets and the scheduler lanes are part of every number.
+ * The plugin runs on a test activity with default preferences. Each measured call is a cache miss: copies
+ * read from a renamed source and the other fixtures get a new modification time before each call.
+ *
+ * Fixtures are generated from a fixed seed, so two runs on the same device and build work on identical input
+ * and their reports can be compared to catch regressions. Each measurement is repeated after a warm-up run;
+ * the report holds the p50, p95 and max of the repetitions. Copies read from a content URI served by the
+ * FileProvider declared in the test manifest, so they go through a provider like a picked item does.
+ *
+ * Settings are instrumentation arguments: iterations (default 5), seed, sizes as "1920x1080,4032x3024",
+ * copyMB (default 64), thumbnailW/thumbnailH (default 200), compressQuality (default 80), videoSize
+ * (default "1280x720"), videoSeconds (default 3) and frameCount (default 10).
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaBenchmark {
+    private static final String TAG = "MediaBenchmark";
+    private static final String DIR_NAME = "mediaPickerBenchmark";
+    // Declared in the test manifest, serves DIR_NAME in the cache directory
+    private static final String PROVIDER_SUFFIX = ".benchmark";
+    // The plugin's cache directories, emptied so every run starts cold
+    private static final String[] PLUGIN_CACHE_DIRS = {"mediaPicker", "mediaPickerThumbnails"};
+    private static final long DEFAULT_SEED = 42;
+    private static final int[][] DEFAULT_SIZES = {{1920, 1080}, {4032, 3024}};
+    private static final int[] DEFAULT_VIDEO_SIZE = {1280, 720};
+    private static final int VIDEO_FPS = 30;
+    private static final long CODEC_TIMEOUT_US = 10000;
+    private static final int STRIP_ROWS = 64;
+    private static final long SAMPLE_INTERVAL_MS = 2;
+    private static final long CALL_TIMEOUT_S = 120;
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private MediaPicker plugin;
+
+    @Test
+    public void benchmark() throws IOException, JSONException, InterruptedException {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        int iterations = (int) Math.max(1, argument(arguments, "iterations", 5));
+        long seed = argument(arguments, "seed", DEFAULT_SEED);
+        int copyMB = (int) Math.max(1, argument(arguments, "copyMB", 64));
+        int thumbnailW = (int) argument(arguments, "thumbnailW", 200);
+        int thumbnailH = (int) argument(arguments, "thumbnailH", 200);
+        int compressQuality = (int) argument(arguments, "compressQuality", 80);
+        int videoSeconds = (int) Math.max(1, argument(arguments, "videoSeconds", 3));
+        int frameCount = (int) Math.max(1, argument(arguments, "frameCount", 10));
+        int[][] sizes = parseSizes(arguments.getString("sizes"), DEFAULT_SIZES);
+        int[] videoSize = parseSizes(arguments.getString("videoSize"), new int[][]{DEFAULT_VIDEO_SIZE})[0];
+
+        File dir = new File(context.getCacheDir(), DIR_NAME);
+        deleteRecursively(dir);
+        deletePluginCaches();
+        if (!dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+
+        JSONObject report = new JSONObject();
+        ActivityScenario<BenchmarkActivity> scenario = ActivityScenario.launch(BenchmarkActivity.class);
+        try {
+            plugin = startPlugin(scenario);
+            MediaMetrics.reset();
+            report.put("device", deviceInfo());
+            report.put("seed", seed);
+            report.put("iterations", iterations);
+            report.put("copy", benchmarkCopy(dir, copyMB, seed, iterations));
+
+            JSONArray images = new JSONArray();
+            for (int[] size : sizes) {
+                File fixture = createImageFixture(dir, size[0], size[1], seed);
+                JSONObject image = new JSONObject();
+                image.put("width", size[0]);
+                image.put("height", size[1]);
+                image.put("fileBytes", fixture.length());
+                image.put("thumbnail", benchmarkThumbnail(fixture, "image", thumbnailW, thumbnailH, iterations, false));
+                image.put("thumbnailRgb565",
+                        benchmarkThumbnail(fixture, "image", thumbnailW, thumbnailH, iterations, true));
+                image.put("thumbnailCached", benchmarkCachedThumbnail(fixture, thumbnailW, thumbnailH, iterations));
+                image.put("render", benchmarkRender(fixture, thumbnailW, thumbnailH, iterations));
+                image.put("compress", benchmarkCompress(fixture, compressQuality, iterations));
+                images.put(image);
+            }
+            report.put("images", images);
+            report.put("thumbnailDuringCopy", benchmarkThumbnailDuringCopy(dir, copyMB, seed,
+                    new File(dir, "fixture-" + sizes[0][0] + "x" + sizes[0][1] + ".jpg"), thumbnailW, thumbnailH,
+                    iterations));
+
+            File video = createVideoFixture(dir, videoSize[0], videoSize[1], videoSeconds * VIDEO_FPS, seed);
+            JSONObject videoReport = new JSONObject();
+            videoReport.put("width", videoSize[0]);
+            videoReport.put("height", videoSize[1]);
+            videoReport.put("seconds", videoSeconds);
+            videoReport.put("fileBytes", video.length());
+            videoReport.put("thumbnail", benchmarkThumbnail(video, "video", thumbnailW, thumbnailH, iterations, false));
+            videoReport.put("frames", benchmarkVideoFrames(video, frameCount, thumbnailW, thumbnailH, iterations));
+            report.put("video", videoReport);
+
+            // Cache hits, decode budget waits and the time spent in each stage over the whole run
+            report.put("metrics", MediaMetrics.snapshot());
+        } finally {
+            if (plugin != null) {
+                plugin.onDestroy();
+            }
+            scenario.close();
+            deleteRecursively(dir);
+            deletePluginCaches();
+        }
+        Log.i(TAG, "Benchmark: " + report.toString());
+    }
+
+    /**
+     * Creates the plugin like Cordova does, with a CordovaInterface around the test activity.
+     */
+    private static MediaPicker startPlugin(ActivityScenario<BenchmarkActivity> scenario) {
+        final BenchmarkActivity[] activity = new BenchmarkActivity[1];
+        scenario.onActivity(new ActivityScenario.ActivityAction<BenchmarkActivity>() {
+            public void perform(BenchmarkActivity started) {
+                activity[0] = started;
+            }
+        });
+        MediaPicker plugin = new MediaPicker();
+        plugin.privateInitialize("MediaPicker", new CordovaInterfaceImpl(activity[0]), null,
+                new CordovaPreferences());
+        return plugin;
+    }
+
+    /**
+     * Copies a file from a content URI with FileCopier, the work of a copyUriToCache miss, and with the
+     * byte[4096] stream loop the plugin used before as the baseline. Both copy the same source in the same run.
+     * The source was just written, so this measures the copy with a warm page cache. The plugin's copy is
+     * measured through getFileInfo, which copies a content URI into the media cache.
+     */
+    private JSONObject benchmarkCopy(File dir, int megabytes, long seed, int iterations) throws IOException,
+            JSONException, InterruptedException {
+        File source = createCopySource(dir, megabytes, seed);
+        Uri uri = contentUri(source);
+        File target = new File(dir, "copy-target.bin");
+        double[] legacyMillis = new double[iterations];
+        double[] copierMillis = new double[iterations];
+        for (int i = -1; i < iterations; i++) {
+            // Alternated, so both see the same state of the page cache and the storage
+            long start = System.nanoTime();
+            legacyCopy(uri, target);
+            long legacyElapsed = System.nanoTime() - start;
+            target.delete();
+
+            start = System.nanoTime();
+            FileCopier.copy(context.getContentResolver(), uri, target);
+            long copierElapsed = System.nanoTime() - start;
+            target.delete();
+            if (i >= 0) {
+                legacyMillis[i] = legacyElapsed / 1e6;
+                copierMillis[i] = copierElapsed / 1e6;
+            }
+        }
+
+        double[] pluginMillis = new double[iterations];
+        for (int i = -1; i < iterations; i++) {
+            // A new name is a new URI, so the copy is a cache miss
+            source = rename(source, "copy-source-" + (i + 1) + ".bin");
+            long start = System.nanoTime();
+            call("getFileInfo", new JSONArray().put(contentUri(source).toString()).put("uri"));
+            if (i >= 0) {
+                pluginMillis[i] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+        long bytes = source.length();
+        source.delete();
+
+        JSONObject legacy = summarize(legacyMillis);
+        legacy.put("mbPerSecond", megabytes * 1000.0 / percentile(legacyMillis, 50));
+        JSONObject copier = summarize(copierMillis);
+        copier.put("mbPerSecond", megabytes * 1000.0 / percentile(copierMillis, 50));
+        JSONObject viaPlugin = summarize(pluginMillis);
+        viaPlugin.put("mbPerSecond", megabytes * 1000.0 / percentile(pluginMillis, 50));
+        JSONObject result = new JSONObject();
+        result.put("bytes", bytes);
+        result.put("uri", uri.toString());
+        result.put("legacy", legacy);
+        result.put("fileCopier", copier);
+        result.put("speedup", percentile(legacyMillis, 50) / percentile(copierMillis, 50));
+        result.put("plugin", viaPlugin);
+        return result;
+    }
+
+    /**
+     * Copies like copyFileToCache did before FileCopier: an input stream from the resolver and a byte[4096] loop.
+     */
+    private void legacyCopy(Uri uri, File target) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Could not open " + uri);
+        }
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Renders thumbnails with extractThumbnail cache misses, reporting latency, the Java heap allocated per
+     * thumbnail and the number of bitmaps allocated rather than reused per thumbnail.
+     */
+    private JSONObject benchmarkThumbnail(File fixture, String mediaType, int width, int height, int iterations,
+                                          boolean rgb565) throws IOException, JSONException, InterruptedException {
+        double[] millis = new double[iterations];
+        long[] allocated = new long[iterations];
+        long bitmapsBefore = 0;
+        for (int i = -1; i < iterations; i++) {
+            if (i == 0) {
+                bitmapsBefore = MediaMetrics.counter("bitmap.allocated");
+            }
+            touch(fixture);
+            JSONObject media = thumbnailRequest(fixture, mediaType, width, height);
+            media.put("thumbnailRgb565", rgb565);
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            requireThumbnail(call("extractThumbnail", new JSONArray().put(media)));
+            if (i >= 0) {
+                millis[i] = (System.nanoTime() - start) / 1e6;
+                allocated[i] = allocatedBytes() - allocatedBefore;
+            }
+        }
+        long bitmaps = MediaMetrics.counter("bitmap.allocated") - bitmapsBefore;
+
+        JSONObject result = summarize(millis);
+        Arrays.sort(allocated);
+        // -1 when the runtime doesn't report allocations (before Android 6)
+        result.put("javaAllocatedBytes", allocatedBytes() >= 0 ? allocated[allocated.length / 2] : -1);
+        // Counted by MediaMetrics, 0 when metrics are disabled
+        result.put("bitmapAllocations", (double) bitmaps / iterations);
+        return result;
+    }
+
+    /**
+     * Requests the same thumbnail repeatedly, served from the thumbnail cache after the warm-up call.
+     */
+    private JSONObject benchmarkCachedThumbnail(File fixture, int width, int height, int iterations)
+            throws IOException, JSONException, InterruptedException {
+        touch(fixture);
+        double[] millis = new double[iterations];
+        for (int i = -1; i < iterations; i++) {
+            long start = System.nanoTime();
+            requireThumbnail(call("extractThumbnail",
+                    new JSONArray().put(thumbnailRequest(fixture, "image", width, height))));
+            if (i >= 0) {
+                millis[i] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+        return summarize(millis);
+    }
+
+    /**
+     * Measures extractThumbnail misses while a large copy runs on the background lane, to compare against
+     * the thumbnail measured alone. Each copy is started right before the thumbnail and awaited after it.
+     */
+    private JSONObject benchmarkThumbnailDuringCopy(File dir, int megabytes, long seed, File fixture, int width,
+                                                    int height, int iterations)
+            throws IOException, JSONException, InterruptedException {
+        File source = createCopySource(dir, megabytes, seed);
+        double[] millis = new double[iterations];
+        for (int i = -1; i < iterations; i++) {
+            source = rename(source, "concurrent-source-" + (i + 1) + ".bin");
+            touch(fixture);
+            Call copy = start("getFileInfo", new JSONArray().put(contentUri(source).toString()).put("uri"));
+            long start = System.nanoTime();
+            requireThumbnail(call("extractThumbnail",
+                    new JSONArray().put(thumbnailRequest(fixture, "image", width, height))));
+            if (i >= 0) {
+                millis[i] = (System.nanoTime() - start) / 1e6;
+            }
+            copy.await();
+        }
+        source.delete();
+        return summarize(millis);
+    }
+
+    /**
+     * Decodes, scales and encodes a thumbnail with BitmapHelper alone, with and without a bitmap pool.
+     * Without the pool, this is the allocation pattern before bitmaps were pooled: new bitmaps and a new
+     * encode buffer for every thumbnail. Isolates the pool from the rest of the plugin.
+     */
+    private static JSONObject benchmarkRender(File fixture, int width, int height, int iterations)
+            throws IOException, JSONException {
+        JSONObject result = new JSONObject();
+        result.put("pooled", benchmarkRender(fixture, width, height, iterations,
+                new BitmapPool(8 * 1024 * 1024)));
+        result.put("withoutPool", benchmarkRender(fixture, width, height, iterations, null));
+        return result;
+    }
+
+    private static JSONObject benchmarkRender(File fixture, int width, int height, int iterations, BitmapPool pool)
+            throws IOException, JSONException {
+        double[] millis = new double[iterations];
+        long[] allocated = new long[iterations];
+        for (int i = -1; i < iterations; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            renderThumbnail(fixture, width, height, pool);
+            if (i >= 0) {
+                millis[i] = (System.nanoTime() - start) / 1e6;
+                allocated[i] = allocatedBytes() - allocatedBefore;
+            }
+        }
+        if (pool != null) {
+            pool.clear();
+        }
+        JSONObject result = summarize(millis);
+        Arrays.sort(allocated);
+        result.put("javaAllocatedBytes", allocatedBytes() >= 0 ? allocated[allocated.length / 2] : -1);
+        return result;
+    }
+
+    /**
+     * Decodes, scales and encodes a thumbnail the way the plugin renders an image thumbnail.
+     */
+    private static void renderThumbnail(File fixture, int width, int height, BitmapPool pool) throws IOException {
+        Bitmap sampled = BitmapHelper.decodeSampled(fixture.getAbsolutePath(), width, height,
+                Bitmap.Config.ARGB_8888, pool);
+        if (sampled == null) {
+            throw new IOException("Could not decode " + fixture);
+        }
+        Bitmap thumbnail = BitmapHelper.centerCrop(sampled, width, height, pool);
+        BitmapHelper.release(sampled, pool);
+        BitmapHelper.encode(thumbnail, Bitmap.CompressFormat.JPEG, 50, pool != null);
+        BitmapHelper.release(thumbnail, pool);
+    }
+
+    /**
+     * Compresses the full-size image with compressImage cache misses, sampling the heap while it runs to find
+     * the peak memory above the level before the call.
+     */
+    private JSONObject benchmarkCompress(File fixture, int quality, int iterations) throws IOException,
+            JSONException, InterruptedException {
+        double[] millis = new double[iterations];
+        long peakNative = 0;
+        long peakJava = 0;
+        long outputBytes = 0;
+        for (int i = -1; i < iterations; i++) {
+            touch(fixture);
+            JSONObject options = new JSONObject();
+            options.put("path", fixture.getAbsolutePath());
+            options.put("mediaType", "image");
+            options.put("quality", quality);
+            MemorySampler sampler = new MemorySampler();
+            sampler.start();
+            long start = System.nanoTime();
+            long elapsed;
+            JSONObject result;
+            try {
+                result = new JSONObject(call("compressImage", new JSONArray().put(options)).getMessage());
+            } finally {
+                elapsed = System.nanoTime() - start;
+                sampler.finish();
+            }
+            outputBytes = result.optLong("size");
+            if (i >= 0) {
+                millis[i] = elapsed / 1e6;
+                peakNative = Math.max(peakNative, sampler.peakNative);
+                peakJava = Math.max(peakJava, sampler.peakJava);
+            }
+        }
+
+        JSONObject result = summarize(millis);
+        result.put("outputBytes", outputBytes);
+        result.put("peakNativeBytes", peakNative);
+        result.put("peakJavaBytes", peakJava);
+        return result;
+    }
+
+    /**
+     * Extracts evenly spaced frames with extractVideoFrames, reporting the latency of the whole call and per
+     * frame.
+     */
+    private JSONObject benchmarkVideoFrames(File video, int frameCount, int width, int height, int iterations)
+            throws IOException, JSONException, InterruptedException {
+        double[] millis = new double[iterations];
+        for (int i = -1; i < iterations; i++) {
+            JSONObject options = new JSONObject();
+            options.put("path", video.getAbsolutePath());
+            options.put("frameCount", frameCount);
+            options.put("thumbnailW", width);
+            options.put("thumbnailH", height);
+            long start = System.nanoTime();
+            Call frames = start("extractVideoFrames", new JSONArray().put(options));
+            frames.await();
+            if (i >= 0) {
+                millis[i] = (System.nanoTime() - start) / 1e6;
+            }
+            int sent = 0;
+            for (PluginResult result : frames.results) {
+                JSONObject message = new JSONObject(result.getMessage());
+                if ("item".equals(message.optString("type")) && message.getJSONObject("item").has("thumbnailBase64")) {
+                    sent++;
+                }
+            }
+            if (sent != frameCount) {
+                throw new IOException("Expected " + frameCount + " frames, got " + sent);
+            }
+        }
+        JSONObject result = summarize(millis);
+        result.put("frameCount", frameCount);
+        result.put("perFrameMs", percentile(millis, 50) / frameCount);
+        return result;
+    }
+
+    /**
+     * The results of one plugin call, complete once a result without keepCallback arrives.
+     */
+    private static class Call extends CallbackContext {
+        final List<PluginResult> results = new CopyOnWriteArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final String action;
+
+        Call(String action) {
+            super(action, null);
+            this.action = action;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult result) {
+            results.add(result);
+            if (!result.getKeepCallback()) {
+                done.countDown();
+            }
+        }
+
+        /**
+         * Waits for the final result and returns it.
+         *
+         * @throws IOException if the call failed or timed out
+         */
+        PluginResult await() throws IOException, InterruptedException {
+            if (!done.await(CALL_TIMEOUT_S, TimeUnit.SECONDS)) {
+                throw new IOException(action + " timed out");
+            }
+            PluginResult last = results.get(results.size() - 1);
+            if (last.getStatus() != PluginResult.Status.OK.ordinal()) {
+                throw new IOException(action + " failed: " + last.getMessage());
+            }
+            return last;
+        }
+    }
+
+    private Call start(String action, JSONArray args) throws IOException, JSONException {
+        Call call = new Call(action);
+        if (!plugin.execute(action, args, call)) {
+            throw new IOException("Unknown action " + action);
+        }
+        return call;
+    }
+
+    /**
+     * Runs a plugin action and returns its final result.
+     */
+    private PluginResult call(String action, JSONArray args) throws IOException, JSONException,
+            InterruptedException {
+        return start(action, args).await();
+    }
+
+    private static JSONObject thumbnailRequest(File fixture, String mediaType, int width, int height)
+            throws JSONException {
+        JSONObject media = new JSONObject();
+        media.put("path", fixture.getAbsolutePath());
+        media.put("mediaType", mediaType);
+        media.put("thumbnailW", width);
+        media.put("thumbnailH", height);
+        return media;
+    }
+
+    /**
+     * Fails if extractThumbnail returned the media object without a thumbnail, which it does on errors.
+     */
+    private static void requireThumbnail(PluginResult result) throws IOException, JSONException {
+        JSONObject media = new JSONObject(result.getMessage());
+        if (media.isNull("thumbnailBase64")) {
+            throw new IOException("No thumbnail for " + media.optString("path"));
+        }
+    }
+
+    /**
+     * Moves the modification time of a fixture forward, so cache keys built from it change and the next call
+     * is a cache miss.
+     */
+    private static void touch(File fixture) throws IOException {
+        if (!fixture.setLastModified(fixture.lastModified() + 1000)) {
+            throw new IOException("Could not change the modification time of " + fixture);
+        }
+    }
+
+    private static File rename(File file, String name) throws IOException {
+        File renamed = new File(file.getParentFile(), name);
+        if (!file.renameTo(renamed)) {
+            throw new IOException("Could not rename " + file + " to " + name);
+        }
+        return renamed;
+    }
+
+    private Uri contentUri(File file) {
+        return FileProvider.getUriForFile(context, context.getPackageName() + PROVIDER_SUFFIX, file);
+    }
+
+    private void deletePluginCaches() {
+        for (String name : PLUGIN_CACHE_DIRS) {
+            deleteRecursively(new File(context.getCacheDir(), name));
+        }
+    }
+
+    /**
+     * Polls native and Java heap usage on its own thread until finished.
+     */
+    private static class MemorySampler extends Thread {
+        private final long nativeBaseline = Debug.getNativeHeapAllocatedSize();
+        private final long javaBaseline = javaUsed();
+        private volatile boolean running = true;
+        volatile long peakNative;
+        volatile long peakJava;
+
+        MemorySampler() {
+            super("MediaBenchmark-sampler");
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void finish() {
+            running = false;
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sample();
+        }
+
+        private void sample() {
+            peakNative = Math.max(peakNative, Debug.getNativeHeapAllocatedSize() - nativeBaseline);
+            peakJava = Math.max(peakJava, javaUsed() - javaBaseline);
+        }
+
+        private static long javaUsed() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+
+    /**
+     * Writes a file of seeded random bytes, which neither the storage nor the provider can compress.
+     */
+    private static File createCopySource(File dir, int megabytes, long seed) throws IOException {
+        File source = new File(dir, "copy-source.bin");
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(seed);
+        try (OutputStream out = new FileOutputStream(source)) {
+            for (int i = 0; i < megabytes; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Writes a JPEG of the given size with a gradient and seeded noise, so it compresses like a photo rather
+     * than a flat image. The bitmap is filled in strips to keep the Java heap small.
+     */
+    private static File createImageFixture(File dir, int width, int height, long seed) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Random random = new Random(seed);
+        int[] strip = new int[width * STRIP_ROWS];
+        for (int y = 0; y < height; y += STRIP_ROWS) {
+            int rows = Math.min(STRIP_ROWS, height - y);
+            for (int row = 0; row < rows; row++) {
+                for (int x = 0; x < width; x++) {
+                    int noise = random.nextInt(48);
+                    int r = Math.min(255, x * 255 / width + noise);
+                    int g = Math.min(255, (y + row) * 255 / height + noise);
+                    int b = Math.min(255, 128 + noise);
+                    strip[row * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+                }
+            }
+            bitmap.setPixels(strip, 0, width, 0, y, width, rows);
+        }
+
+        File file = new File(dir, "fixture-" + width + "x" + height + ".jpg");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 95, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    /**
+     * Encodes an H.264 MP4 of the given size at VIDEO_FPS with one key frame per second. Every frame is a
+     * moving gradient with seeded noise, so frames differ like in a real video.
+     */
+    private static File createVideoFixture(File dir, int width, int height, int frames, long seed)
+            throws IOException {
+        File file = new File(dir, "fixture-" + width + "x" + height + ".mp4");
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, width * height * 4);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, VIDEO_FPS);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+
+        MediaCodec encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        MediaMuxer muxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+            Random random = new Random(seed);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int track = -1;
+            int queued = 0;
+            boolean inputDone = false;
+            while (true) {
+                if (!inputDone) {
+                    int index = encoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (index >= 0) {
+                        long timeUs = queued * 1000000L / VIDEO_FPS;
+                        if (queued == frames) {
+                            encoder.queueInputBuffer(index, 0, 0, timeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            Image image = encoder.getInputImage(index);
+                            if (image == null) {
+                                throw new IOException("The encoder has no image input");
+                            }
+                            fillFrame(image, queued, random);
+                            encoder.queueInputBuffer(index, 0, width * height * 3 / 2, timeUs, 0);
+                            queued++;
+                        }
+                    }
+                }
+                int index = encoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    track = muxer.addTrack(encoder.getOutputFormat());
+                    muxer.start();
+                } else if (index >= 0) {
+                    // The codec config is part of the output format
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0 && track >= 0) {
+                        ByteBuffer data = encoder.getOutputBuffer(index);
+                        data.position(info.offset);
+                        data.limit(info.offset + info.size);
+                        muxer.writeSampleData(track, data, info);
+                    }
+                    encoder.releaseOutputBuffer(index, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            }
+            muxer.stop();
+        } finally {
+            encoder.release();
+            muxer.release();
+        }
+        return file;
+    }
+
+    /**
+     * Fills a YUV 4:2:0 image with a gradient that moves with the frame number, plus seeded noise in luma.
+     */
+    private static void fillFrame(Image image, int frame, Random random) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane[] planes = image.getPlanes();
+        for (int plane = 0; plane < planes.length; plane++) {
+            ByteBuffer buffer = planes[plane].getBuffer();
+            int rowStride = planes[plane].getRowStride();
+            int pixelStride = planes[plane].getPixelStride();
+            int shift = plane == 0 ? 0 : 1;
+            int planeWidth = width >> shift;
+            int planeHeight = height >> shift;
+            for (int y = 0; y < planeHeight; y++) {
+                for (int x = 0; x < planeWidth; x++) {
+                    int value;
+                    if (plane == 0) {
+                        // Wraps around, so the gradient scrolls
+                        value = (x + frame * 8) * 255 / width + random.nextInt(32);
+                    } else {
+                        value = plane == 1 ? 64 + (y << shift) * 128 / height : 192 - (x << shift) * 128 / width;
+                    }
+                    buffer.put(y * rowStride + x * pixelStride, (byte) value);
+                }
+            }
+        }
+    }
+
+    private static JSONObject deviceInfo() throws JSONException {
+        JSONObject device = new JSONObject();
+        device.put("manufacturer", Build.MANUFACTURER);
+        device.put("model", Build.MODEL);
+        device.put("sdk", Build.VERSION.SDK_INT);
+        device.put("cores", Runtime.getRuntime().availableProcessors());
+        device.put("maxMemory", Runtime.getRuntime().maxMemory());
+        return device;
+    }
+
+    private static long argument(Bundle arguments, String name, long defaultValue) {
+        String value = arguments.getString(name);
+        return value != null ? Long.parseLong(value.trim()) : defaultValue;
+    }
+
+    /**
+     * Parses sizes given as "1920x1080,4032x3024".
+     */
+    private static int[][] parseSizes(String sizes, int[][] defaultSizes) {
+        if (sizes == null || sizes.trim().isEmpty()) {
+            return defaultSizes;
+        }
+        String[] items = sizes.split(",");
+        int[][] parsed = new int[items.length][];
+        for (int i = 0; i < items.length; i++) {
+            String[] size = items[i].trim().split("x");
+            parsed[i] = new int[]{
+                    Math.max(1, Integer.parseInt(size[0].trim())),
+                    Math.max(1, Integer.parseInt(size[size.length - 1].trim()))
+            };
+        }
+        return parsed;
+    }
+
+    private static JSONObject summarize(double[] millis) throws JSONException {
+        JSONObject summary = new JSONObject();
+        summary.put("p50Ms", percentile(millis, 50));
+        summary.put("p95Ms", percentile(millis, 95));
+        summary.put("maxMs", percentile(millis, 100));
+        return summary;
+    }
+
+    private static double percentile(double[] values, double percentile) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(sorted.length * percentile / 100) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Returns the bytes allocated on the Java heap since the process started, or -1 if not available.
+     */
+    private static long allocatedBytes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        String value = Debug.getRuntimeStat("art.gc.bytes-allocated");
+        try {
+            return value != null ? Long.parseLong(value) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,84 @@
+package com.dmc.mediaPickerPlugin;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitmapHelperTest {
+    @Test
+    public void findsHighestQualityThatFits() {
+        for (long target = 1000; target <= 10000; target += 700) {
+            FakeEncoder encoder = new FakeEncoder(100);
+            int quality = BitmapHelper.searchQuality(100, target, encoder);
+            assertEquals(Math.min(100, (int) (target / 100)), quality);
+            assertEquals(quality, encoder.kept);
+            encoder.assertWithin(BitmapHelper.MIN_SEARCH_QUALITY, 100);
+        }
+    }
+
+    @Test
+    public void neverTriesAboveMaxQuality() {
+        FakeEncoder encoder = new FakeEncoder(100);
+        assertEquals(80, BitmapHelper.searchQuality(80, Long.MAX_VALUE, encoder));
+        encoder.assertWithin(BitmapHelper.MIN_SEARCH_QUALITY, 80);
+    }
+
+    @Test
+    public void maxQualityBelowMinimumTriesOnlyMinimum() {
+        FakeEncoder encoder = new FakeEncoder(100);
+        assertEquals(BitmapHelper.MIN_SEARCH_QUALITY, BitmapHelper.searchQuality(1, Long.MAX_VALUE, encoder));
+        encoder.assertWithin(BitmapHelper.MIN_SEARCH_QUALITY, BitmapHelper.MIN_SEARCH_QUALITY);
+    }
+
+    @Test
+    public void nothingFitsEndsAtMinimumQuality() {
+        FakeEncoder encoder = new FakeEncoder(100);
+        assertEquals(-1, BitmapHelper.searchQuality(100, 10, encoder));
+        assertEquals(-1, encoder.kept);
+        // compressToSize scales down from the size of this last attempt
+        assertEquals(BitmapHelper.MIN_SEARCH_QUALITY, (int) encoder.tried.get(encoder.tried.size() - 1));
+        encoder.assertWithin(BitmapHelper.MIN_SEARCH_QUALITY, 100);
+    }
+
+    @Test
+    public void searchIsLogarithmic() {
+        FakeEncoder encoder = new FakeEncoder(100);
+        BitmapHelper.searchQuality(100, 4321, encoder);
+        // 91 candidates between 10 and 100
+        assertTrue(encoder.tried.size() <= 7);
+    }
+
+    /**
+     * Output size grows linearly with the quality.
+     */
+    private static class FakeEncoder implements BitmapHelper.QualityEncoder {
+        final List<Integer> tried = new ArrayList<>();
+        private final long bytesPerQuality;
+        private int last = -1;
+        int kept = -1;
+
+        FakeEncoder(long bytesPerQuality) {
+            this.bytesPerQuality = bytesPerQuality;
+        }
+
+        public long encode(int quality) {
+            tried.add(quality);
+            last = quality;
+            return quality * bytesPerQuality;
+        }
+
+        public void keep() {
+            kept = last;
+        }
+
+        void assertWithin(int min, int max) {
+            for (int quality : tried) {
+                assertTrue(quality + " outside " + min + ".." + max, quality >= min && quality <= max);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.dmc.mediaPickerPlugin;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeBudgetTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    @Test
+    public void admitsJobsThatFit() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        DecodeBudget.Reservation first = budget.reserve(40, null);
+        DecodeBudget.Reservation second = budget.reserve(60, null);
+        assertEquals(100, budget.getReservedBytes());
+        first.close();
+        second.close();
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    @Test
+    public void closingTwiceReleasesOnce() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        DecodeBudget.Reservation kept = budget.reserve(30, null);
+        DecodeBudget.Reservation closed = budget.reserve(30, null);
+        closed.close();
+        closed.close();
+        assertEquals(30, budget.getReservedBytes());
+        kept.close();
+    }
+
+    @Test
+    public void waitsUntilEnoughIsReleased() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        DecodeBudget.Reservation running = budget.reserve(60, null);
+        Waiter waiter = new Waiter(budget, 60, null);
+        waiter.start();
+        assertFalse(waiter.admitted.await(200, TimeUnit.MILLISECONDS));
+
+        running.close();
+        assertTrue(waiter.admitted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        waiter.release();
+    }
+
+    @Test
+    public void oversizedJobRunsAlone() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        DecodeBudget.Reservation small = budget.reserve(10, null);
+        Waiter oversized = new Waiter(budget, 250, null);
+        oversized.start();
+        assertFalse(oversized.admitted.await(200, TimeUnit.MILLISECONDS));
+
+        small.close();
+        assertTrue(oversized.admitted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(250, budget.getReservedBytes());
+        oversized.release();
+    }
+
+    @Test
+    public void admitsInArrivalOrder() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        DecodeBudget.Reservation running = budget.reserve(50, null);
+        List<Long> order = new CopyOnWriteArrayList<>();
+        Waiter large = new Waiter(budget, 60, order);
+        large.start();
+        assertFalse(large.admitted.await(200, TimeUnit.MILLISECONDS));
+        // Fits next to the running job, but must not overtake the large one, and doesn't fit next to it
+        Waiter small = new Waiter(budget, 50, order);
+        small.start();
+        assertFalse(small.admitted.await(200, TimeUnit.MILLISECONDS));
+
+        running.close();
+        assertTrue(large.admitted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(small.admitted.await(200, TimeUnit.MILLISECONDS));
+        large.release();
+        assertTrue(small.admitted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Long.valueOf(60), order.get(0));
+        assertEquals(Long.valueOf(50), order.get(1));
+        small.release();
+    }
+
+    /**
+     * Reserves on its own thread and holds the reservation until released.
+     */
+    private static class Waiter extends Thread {
+        final CountDownLatch admitted = new CountDownLatch(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final DecodeBudget budget;
+        private final long bytes;
+        private final List<Long> order;
+
+        Waiter(DecodeBudget budget, long bytes, List<Long> order) {
+            this.budget = budget;
+            this.bytes = bytes;
+            this.order = order;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                DecodeBudget.Reservation reservation = budget.reserve(bytes, null);
+                if (order != null) {
+                    order.add(bytes);
+                }
+                admitted.countDown();
+                done.await();
+                reservation.close();
+            } catch (InterruptedException e) {
+                // test over
+            }
+        }
+
+        void release() throws InterruptedException {
+            done.countDown();
+            join(TIMEOUT_MS);
+        }
+    }
+}
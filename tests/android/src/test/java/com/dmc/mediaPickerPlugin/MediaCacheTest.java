@@ -0,0 +1,156 @@
+package com.dmc.mediaPickerPlugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MediaCacheTest {
+    private static final long QUOTA = 100;
+
+    private File root;
+    private MediaCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("mediaCache").toFile();
+        cache = new MediaCache(root, QUOTA);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(root);
+    }
+
+    @Test
+    public void hitDoesNotWriteAgain() throws IOException {
+        File first = cache.getOrCreate("a", "a.jpg", writer(10));
+        File second = cache.getOrCreate("a", "a.jpg", new MediaCache.Writer() {
+            public void write(File target) {
+                fail("cached entry written again");
+            }
+        });
+        assertEquals(first, second);
+        assertEquals(10, cache.getTotalBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverQuota() throws IOException {
+        cache.getOrCreate("a", "a.jpg", writer(40));
+        cache.getOrCreate("b", "b.jpg", writer(40));
+        // a is now more recently used than b
+        assertNotNull(cache.get("a"));
+        cache.getOrCreate("c", "c.jpg", writer(40));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(80, cache.getTotalBytes());
+        assertFalse(new File(root, "b").exists());
+    }
+
+    @Test
+    public void keepsEntryLargerThanQuota() throws IOException {
+        cache.getOrCreate("a", "a.jpg", writer(40));
+        File large = cache.getOrCreate("large", "large.jpg", writer(150));
+        assertTrue(large.isFile());
+        assertNull(cache.get("a"));
+        assertEquals(150, cache.getTotalBytes());
+    }
+
+    @Test
+    public void pinnedEntriesSurviveUntilReleased() throws IOException {
+        MediaCache.Pins pins = cache.newPins();
+        cache.getOrCreate("a", "a.jpg", writer(40), pins);
+        cache.getOrCreate("b", "b.jpg", writer(40), pins);
+        cache.getOrCreate("c", "c.jpg", writer(40), pins);
+        assertEquals(120, cache.getTotalBytes());
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+
+        pins.release();
+        // Releasing evicts nothing, the owner has just handed the files out
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(120, cache.getTotalBytes());
+        // After a release the pins pin nothing more
+        cache.getOrCreate("d", "d.jpg", writer(40), pins);
+        cache.getOrCreate("e", "e.jpg", writer(100));
+        assertNull(cache.get("d"));
+        assertEquals(100, cache.getTotalBytes());
+    }
+
+    @Test
+    public void releasedEntryLargerThanQuotaSurvivesUntilNextWrite() throws IOException {
+        MediaCache.Pins pins = cache.newPins();
+        File large = cache.getOrCreate("large", "large.jpg", writer(150), pins);
+        pins.release();
+        assertTrue(large.isFile());
+        assertNotNull(cache.get("large"));
+
+        cache.getOrCreate("a", "a.jpg", writer(40));
+        assertFalse(large.exists());
+        assertEquals(40, cache.getTotalBytes());
+    }
+
+    @Test
+    public void failedWriteLeavesNoEntry() throws IOException {
+        try {
+            cache.getOrCreate("a", "a.jpg", new MediaCache.Writer() {
+                public void write(File target) throws IOException {
+                    new FileOutputStream(target).close();
+                    throw new IOException("write failed");
+                }
+            });
+            fail("expected the writer's exception");
+        } catch (IOException e) {
+            assertEquals("write failed", e.getMessage());
+        }
+        assertNull(cache.get("a"));
+        assertFalse(new File(root, "a").exists());
+        // The key is usable again
+        assertEquals(10, cache.getOrCreate("a", "a.jpg", writer(10)).length());
+    }
+
+    @Test
+    public void reloadsEntriesFromDisk() throws IOException {
+        cache.getOrCreate("a", "a.jpg", writer(40));
+        cache.getOrCreate("b", "b.jpg", writer(30));
+        MediaCache reopened = new MediaCache(root, QUOTA);
+        assertEquals(70, reopened.getTotalBytes());
+        assertNotNull(reopened.get("a"));
+    }
+
+    private static MediaCache.Writer writer(final int bytes) {
+        return new MediaCache.Writer() {
+            public void write(File target) throws IOException {
+                try (FileOutputStream out = new FileOutputStream(target)) {
+                    out.write(new byte[bytes]);
+                }
+            }
+        };
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
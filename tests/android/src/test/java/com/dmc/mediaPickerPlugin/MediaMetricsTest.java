@@ -0,0 +1,39 @@
+package com.dmc.mediaPickerPlugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MediaMetricsTest {
+    @Test
+    public void smallValuesHaveExactBuckets() {
+        for (long value = 0; value < 4; value++) {
+            int bucket = MediaMetrics.Histogram.bucketOf(value);
+            assertEquals(value, bucket);
+            assertEquals(value, MediaMetrics.Histogram.upperBoundOf(bucket));
+        }
+    }
+
+    @Test
+    public void upperBoundIsWithinAQuarterOfTheValue() {
+        for (long value = 4; value > 0 && value < Long.MAX_VALUE / 2; value = value * 3 / 2 + 1) {
+            for (long v = value; v < value + 3; v++) {
+                long upper = MediaMetrics.Histogram.upperBoundOf(MediaMetrics.Histogram.bucketOf(v));
+                assertTrue(v + " -> " + upper, upper >= v);
+                assertTrue(v + " -> " + upper, upper - v <= v / 4);
+            }
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        int last = MediaMetrics.Histogram.bucketOf(Long.MAX_VALUE);
+        for (int bucket = 0; bucket < last; bucket++) {
+            long upper = MediaMetrics.Histogram.upperBoundOf(bucket);
+            assertEquals(bucket, MediaMetrics.Histogram.bucketOf(upper));
+            assertEquals(bucket + 1, MediaMetrics.Histogram.bucketOf(upper + 1));
+        }
+        assertEquals(Long.MAX_VALUE, MediaMetrics.Histogram.upperBoundOf(last));
+    }
+}
@@ -0,0 +1,64 @@
+package com.dmc.mediaPickerPlugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MediaSchedulerTest {
+    private MediaScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new MediaScheduler(1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void parkedTaskRunsWhenTheLaneFreesUp() throws InterruptedException {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        while (scheduler.trySubmit(MediaScheduler.Lane.BACKGROUND, blocked)) {
+            // Fill the running slot and the queue
+        }
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        scheduler.submitOrPark(MediaScheduler.Lane.BACKGROUND, new Runnable() {
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertFalse(ran.await(100, TimeUnit.MILLISECONDS));
+
+        blocker.countDown();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void submitOrParkRunsRightAwayWhenThereIsRoom() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        scheduler.submitOrPark(MediaScheduler.Lane.INTERACTIVE, new Runnable() {
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,38 @@
+package com.dmc.mediaPickerPlugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class MediaUrlHandlerTest {
+    @Test
+    public void parsesSingleRanges() {
+        assertArrayEquals(new long[] {0, 1023}, MediaUrlHandler.parseRange("bytes=0-1023", 5000));
+        assertArrayEquals(new long[] {1024, 4999}, MediaUrlHandler.parseRange("bytes=1024-", 5000));
+        assertArrayEquals(new long[] {4488, 4999}, MediaUrlHandler.parseRange("bytes=-512", 5000));
+    }
+
+    @Test
+    public void clampsToTheEndOfTheFile() {
+        assertArrayEquals(new long[] {4000, 4999}, MediaUrlHandler.parseRange("bytes=4000-9999", 5000));
+        assertArrayEquals(new long[] {0, 4999}, MediaUrlHandler.parseRange("bytes=-9999", 5000));
+    }
+
+    @Test
+    public void startsPastTheEndWhenUnsatisfiable() {
+        assertArrayEquals(new long[] {5000, 4999}, MediaUrlHandler.parseRange("bytes=5000-", 5000));
+        assertArrayEquals(new long[] {5000, 4999}, MediaUrlHandler.parseRange("bytes=-0", 5000));
+        assertArrayEquals(new long[] {0, -1}, MediaUrlHandler.parseRange("bytes=0-", 0));
+    }
+
+    @Test
+    public void servesTheWholeFileForOtherHeaders() {
+        assertNull(MediaUrlHandler.parseRange(null, 5000));
+        assertNull(MediaUrlHandler.parseRange("items=0-10", 5000));
+        assertNull(MediaUrlHandler.parseRange("bytes=0-10,20-30", 5000));
+        assertNull(MediaUrlHandler.parseRange("bytes=10-5", 5000));
+        assertNull(MediaUrlHandler.parseRange("bytes=abc-", 5000));
+        assertNull(MediaUrlHandler.parseRange("bytes=-", 5000));
+    }
+}
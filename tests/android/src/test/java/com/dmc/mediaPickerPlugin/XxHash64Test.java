@@ -0,0 +1,46 @@
+package com.dmc.mediaPickerPlugin;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class XxHash64Test {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void matchesReferenceVectors() {
+        assertEquals(0xef46db3751d8e999L, hash(""));
+        assertEquals(0xd24ec4f1a98c6e5bL, hash("a"));
+        assertEquals(0x44bc2cf5ad770999L, hash("abc"));
+        assertEquals(0xfbcea83c8a378bf1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void splitUpdatesMatchOneUpdate() {
+        byte[] data = new byte[1000];
+        new Random(42).nextBytes(data);
+        XxHash64 whole = new XxHash64();
+        whole.update(data, 0, data.length);
+
+        // Pieces smaller and larger than the 32-byte stripe, crossing stripe boundaries
+        int[] pieces = {1, 7, 31, 32, 33, 64, 100};
+        XxHash64 split = new XxHash64();
+        int offset = 0;
+        for (int i = 0; offset < data.length; i++) {
+            int length = Math.min(pieces[i % pieces.length], data.length - offset);
+            split.update(data, offset, length);
+            offset += length;
+        }
+        assertEquals(whole.getValue(), split.getValue());
+    }
+
+    private static long hash(String text) {
+        byte[] data = text.getBytes(UTF_8);
+        XxHash64 hash = new XxHash64();
+        hash.update(data, 0, data.length);
+        return hash.getValue();
+    }
+}
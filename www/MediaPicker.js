@@ -2,8 +2,32 @@ var exec = require('cordova/exec');
 
 
 var MediaPicker = {
-    getMedias:function(arg0, success, error) {
-        exec(success, error, "MediaPicker", "getMedias", [arg0]);
+    getMedias:function(arg0, success, error, onItem) {
+        if (typeof onItem !== 'function') {
+            exec(success, error, "MediaPicker", "getMedias", [arg0]);
+            return;
+        }
+        // Streaming mode: onItem(media) fires as soon as each item is ready,
+        // success(medias) fires once all items are done, in selection order
+        var options = {};
+        for (var key in arg0) {
+            options[key] = arg0[key];
+        }
+        options.stream = true;
+        var medias = [];
+        exec(function(result) {
+            if (Array.isArray(result)) { // cancelled, or platform without streaming support
+                for (var i = 0; i < result.length; i++) {
+                    onItem(result[i]);
+                }
+                success(result);
+            } else if (result.type === 'item') {
+                medias[result.item.index] = result.item;
+                onItem(result.item);
+            } else if (result.type === 'complete') {
+                success(medias);
+            }
+        }, error, "MediaPicker", "getMedias", [options]);
     },
     photoLibrary:function(arg0, success, error) {
         exec(success, error, "MediaPicker", "photoLibrary", [arg0]);
@@ -20,6 +44,38 @@ var MediaPicker = {
     extractThumbnail:function(arg0, success, error) {
         exec(success, error, "MediaPicker", "extractThumbnail", [arg0]);
     },
+    extractThumbnails:function(medias, success, error, onItem, options) { //android only
+        // onItem(data, index) fires as each thumbnail is ready, in any order;
+        // success(results) fires once all are done, in the order of medias
+        var results = [];
+        exec(function(result) {
+            if (Array.isArray(result)) {
+                success(result);
+            } else if (result.type === 'item') {
+                results[result.index] = result.item;
+                if (typeof onItem === 'function') {
+                    onItem(result.item, result.index);
+                }
+            } else if (result.type === 'complete') {
+                success(results);
+            }
+        }, error, "MediaPicker", "extractThumbnails", options ? [medias, options] : [medias]);
+    },
+    extractVideoFrames:function(media, success, error, onFrame) { //android only
+        // onFrame(frame, index) fires as each frame is ready, in time order;
+        // success(frames) fires once all are done, in the order of media.times
+        var frames = [];
+        exec(function(result) {
+            if (result.type === 'item') {
+                frames[result.index] = result.item;
+                if (typeof onFrame === 'function') {
+                    onFrame(result.item, result.index);
+                }
+            } else if (result.type === 'complete') {
+                success(frames);
+            }
+        }, error, "MediaPicker", "extractVideoFrames", [media]);
+    },
     compressEvent:function(s,i) {
         cordova.fireDocumentEvent('MediaPicker.CompressVideoEvent', {'status':s,'index':i});
     },
@@ -29,14 +85,82 @@ var MediaPicker = {
     compressImage:function(arg0, success, error) {
         exec(success, error, "MediaPicker", "compressImage", [arg0]);
     },
-    fileToBlob:function(arg0, success, error) {
-        exec(success, error, "MediaPicker", "fileToBlob", [arg0]);
+    fileToBlob:function(arg0, success, error, options) {
+        exec(success, error, "MediaPicker", "fileToBlob", options ? [arg0, options] : [arg0]);
+    },
+    readFileChunks:function(path, options, onChunk, success, error) { //android only
+        // onChunk(arrayBuffer, offset) receives the file piece by piece, success(bytes) follows the last chunk.
+        // If onChunk returns a promise, the next chunks wait until it settles.
+        var opts = {};
+        for (var key in options) {
+            opts[key] = options[key];
+        }
+        if (!opts.jobId) {
+            opts.jobId = 'chunks-' + Date.now() + '-' + Math.random().toString(36).slice(2);
+        }
+        var failed = false;
+        exec(function(info, data) {
+            if (failed) {
+                return;
+            }
+            if (info.type === 'chunk') {
+                var ack = function() {
+                    exec(null, null, "MediaPicker", "fileChunkAck", [info.stream]);
+                };
+                var pending;
+                try {
+                    pending = onChunk(data, info.offset);
+                } catch (e) {
+                    // Ack anyway so the native side isn't left waiting, then stop reading and report the exception
+                    failed = true;
+                    ack();
+                    exec(null, null, "MediaPicker", "cancel", [opts.jobId]);
+                    if (error) {
+                        error(e);
+                    }
+                    return;
+                }
+                if (pending && typeof pending.then === 'function') {
+                    pending.then(ack, ack);
+                } else {
+                    ack();
+                }
+            } else if (info.type === 'complete') {
+                success(info.bytes);
+            }
+        }, function(message) {
+            if (!failed && error) {
+                error(message);
+            }
+        }, "MediaPicker", "readFileChunks", [path, opts]);
+        return opts.jobId;
     },
     getExifForKey:function(arg0, arg1, success, error) {
         exec(success, error, "MediaPicker", "getExifForKey", [arg0,arg1]);
     },
-    getFileInfo:function(path, argType, success, error) { //type:"path"  or "uri"
-        exec(success, error, "MediaPicker", "getFileInfo", [path,argType]);
+    getExif:function(path, tags, success, error) { //android only, tags: array of tag names, or null for all
+        exec(success, error, "MediaPicker", "getExif", [path, tags || []]);
+    },
+    getFileInfo:function(path, argType, success, error, options) { //type:"path"  or "uri"
+        exec(success, error, "MediaPicker", "getFileInfo", options ? [path,argType,options] : [path,argType]);
+    },
+    getMediaUrl:function(path, success, error) { //android only, path or content uri
+        exec(success, error, "MediaPicker", "getMediaUrl", [path]);
+    },
+    getCacheStats:function(success, error) { //android only
+        exec(success, error, "MediaPicker", "getCacheStats", []);
+    },
+    getMetrics:function(options, success, error) { //android only, options: {log: true} also writes them to logcat
+        exec(success, error, "MediaPicker", "getMetrics", [options || {}]);
+    },
+    resetMetrics:function(success, error) { //android only
+        exec(success, error, "MediaPicker", "resetMetrics", []);
+    },
+    cancel:function(jobId, success, error) { //android only
+        exec(success, error, "MediaPicker", "cancel", [jobId]);
+    },
+    cancelAll:function(success, error) { //android only
+        exec(success, error, "MediaPicker", "cancelAll", []);
     }
 };
 